@@ -0,0 +1,322 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Content addressed store of verified plugin jars, so a resource version that was downloaded once (by this server or
+ * another one sharing the directory) can be installed again without touching the network.
+ *
+ * Jars are stored as "&lt;sha256&gt;.jar" and "index/&lt;resource id&gt;/&lt;version&gt;" holds the hash of every version
+ * that was downloaded. Every entry is its own file, written with an atomic move, so several servers can share the cache.
+ * Adding and evicting hold a lock on ".lock" in the cache directory, so one server never evicts a jar another one is adding.
+ *
+ * Replaced jars are archived here as well so updates can be rolled back without a download. Only the most recently used
+ * versions of every resource are kept, and the least recently used jars are evicted once the cache grows too large.
+ */
+public class ArtifactCache {
+    //Unreferenced jars younger than this are left alone, in case the lock isn't supported by the (network) file system.
+    private static final long GRACE_MILLIS = 10 * 60 * 1000L;
+
+    @Getter private final File directory;
+    private final File indexDirectory;
+
+    //Versions kept per resource, 0 or less for no limit.
+    @Getter @Setter private int keepVersions = 3;
+    //Total size of the cached jars, 0 or less for no limit.
+    @Getter @Setter private long maxSizeBytes;
+
+    public ArtifactCache(File directory) {
+        this.directory = directory;
+        indexDirectory = new File(directory, "index");
+    }
+
+    /**
+     * @param resourceId The ID of the resource on Spigot.
+     * @param version    The version of the resource.
+     * @return The cached jar of the version, or null if it isn't cached.
+     */
+    public File find(int resourceId, String version) {
+        File indexFile = getIndexFile(resourceId, version);
+
+        if (!indexFile.isFile())
+            return null;
+
+        try {
+            String hash = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim();
+            File artifact = getArtifact(hash);
+
+            if (!artifact.isFile())
+                return null;
+
+            //Modification times double as last use for the eviction.
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Files.setLastModifiedTime(indexFile.toPath(), now);
+            Files.setLastModifiedTime(artifact.toPath(), now);
+
+            return artifact;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Installs a cached version of a resource, as a hard link if possible or a copy otherwise.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @param version    The version of the resource.
+     * @param target     The jar to create, it is replaced if it exists.
+     * @return True if the version was cached and installed, false if it has to be downloaded.
+     */
+    public boolean install(int resourceId, String version, File target) {
+        File artifact = find(resourceId, version);
+
+        if (artifact == null)
+            return false;
+
+        try {
+            //The name is the hash of the jar, a jar that doesn't match it anymore was damaged after it was stored.
+            String hash = artifact.getName().substring(0, artifact.getName().length() - 4);
+            if (!hash.equals(UtilHash.sha256(artifact))) {
+                AutoUpdaterAPI.getInstance().getLogger().warning("Cached jar " + artifact.getName() + " does not match its hash, removing it.");
+                forget(resourceId, version);
+                return false;
+            }
+
+            Files.deleteIfExists(target.toPath());
+            link(artifact.toPath(), target.toPath());
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while installing " + target.getName() + " from the artifact cache.");
+            return false;
+        }
+
+        if (AutoUpdaterAPI.getInstance().isDebug())
+            AutoUpdaterAPI.getInstance().getLogger().info("Installed " + target.getName() + " from the artifact cache (" + artifact.getName() + ").");
+
+        return true;
+    }
+
+    /**
+     * Adds a downloaded jar that was verified to be a plugin to the cache, failures are reported but never fail the update.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @param version    The version of the resource.
+     * @param file       The downloaded jar.
+     * @param sha256     The SHA-256 computed while the jar was downloaded.
+     */
+    public synchronized void store(int resourceId, String version, File file, String sha256) {
+        try {
+            Files.createDirectories(directory.toPath());
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while adding " + file.getName() + " to the artifact cache.");
+            return;
+        }
+
+        try (FileChannel ignored = lock()) {
+            Path artifact = getArtifact(sha256).toPath();
+
+            //The index entry goes first, so the jar is referenced from the moment it exists.
+            File indexFile = getIndexFile(resourceId, version);
+            Files.createDirectories(indexFile.getParentFile().toPath());
+
+            Path temp = Files.createTempFile(indexFile.getParentFile().toPath(), "index", ".tmp");
+            Files.write(temp, sha256.getBytes(StandardCharsets.UTF_8));
+            move(temp, indexFile.toPath());
+
+            if (!Files.exists(artifact)) {
+                temp = Files.createTempFile(directory.toPath(), sha256, ".tmp");
+                Files.delete(temp);
+                link(file.toPath(), temp);
+                move(temp, artifact);
+            }
+
+            Files.setLastModifiedTime(artifact, FileTime.fromMillis(System.currentTimeMillis()));
+
+            evictLocked();
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while adding " + file.getName() + " to the artifact cache.");
+        }
+    }
+
+    /**
+     * Drops a version from the index, used when its jar turned out to be broken. The jar itself is evicted once nothing refers to it.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @param version    The version of the resource.
+     */
+    public void forget(int resourceId, String version) {
+        getIndexFile(resourceId, version).delete();
+    }
+
+    /**
+     * Keeps a jar that is about to be replaced, so the update can be rolled back. Called asynchronously.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @param version    The installed version.
+     * @param jar        The installed jar.
+     */
+    public void archive(int resourceId, String version, File jar) {
+        if (!jar.isFile() || find(resourceId, version) != null)
+            return;
+
+        try {
+            store(resourceId, version, jar, UtilHash.sha256(jar));
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while archiving " + jar.getName() + ".");
+        }
+    }
+
+    /**
+     * Drops all but the most recently used versions of every resource, then the least recently used jars until the
+     * cache fits its size limit, and finally every jar no version refers to anymore that wasn't added in the last ten minutes.
+     */
+    public synchronized void evict() {
+        if (!directory.isDirectory())
+            return;
+
+        try (FileChannel ignored = lock()) {
+            evictLocked();
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while evicting the artifact cache.");
+        }
+    }
+
+    private void evictLocked() {
+        File[] resources = indexDirectory.listFiles(File::isDirectory);
+
+        if (resources == null)
+            return;
+
+        List<File> indexFiles = new ArrayList<>();
+
+        for (File resource : resources) {
+            File[] versions = resource.listFiles(File::isFile);
+
+            if (versions == null)
+                continue;
+
+            //Most recently used first.
+            Arrays.sort(versions, Comparator.comparingLong(File::lastModified).reversed());
+
+            for (int i = 0; i < versions.length; i++) {
+                if (keepVersions > 0 && i >= keepVersions)
+                    versions[i].delete();
+                else
+                    indexFiles.add(versions[i]);
+            }
+        }
+
+        Set<String> referenced = new HashSet<>();
+        for (File indexFile : indexFiles) {
+            try {
+                referenced.add(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim() + ".jar");
+            } catch (IOException ignored) {
+            }
+        }
+
+        File[] artifacts = directory.listFiles((dir, name) -> name.endsWith(".jar"));
+
+        if (artifacts == null)
+            return;
+
+        //Least recently used first.
+        Arrays.sort(artifacts, Comparator.comparingLong(File::lastModified));
+
+        long size = 0;
+        List<File> kept = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for (File artifact : artifacts) {
+            if (!referenced.contains(artifact.getName())) {
+                if (now - artifact.lastModified() > GRACE_MILLIS)
+                    artifact.delete();
+            } else {
+                kept.add(artifact);
+                size += artifact.length();
+            }
+        }
+
+        for (int i = 0; maxSizeBytes > 0 && size > maxSizeBytes && i < kept.size(); i++) {
+            File artifact = kept.get(i);
+            size -= artifact.length();
+            artifact.delete();
+
+            //Versions pointing at the jar are useless now.
+            String hash = artifact.getName().substring(0, artifact.getName().length() - 4);
+            for (File indexFile : indexFiles) {
+                try {
+                    if (indexFile.isFile() && hash.equals(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim()))
+                        indexFile.delete();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Locks the cache against other servers sharing the directory, callers hold the monitor so threads of this server never overlap.
+     *
+     * @return The channel holding the lock, closing it releases the lock.
+     */
+    private FileChannel lock() throws IOException {
+        FileChannel channel = FileChannel.open(new File(directory, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        try {
+            channel.lock();
+        } catch (IOException | UnsupportedOperationException ex) {
+            //Not every (network) file system supports locks, the grace period of the eviction covers that case.
+        }
+
+        return channel;
+    }
+
+    private File getArtifact(String sha256) {
+        return new File(directory, sha256 + ".jar");
+    }
+
+    private File getIndexFile(int resourceId, String version) {
+        try {
+            //Versions can contain anything, keep them from escaping the index directory (including "..").
+            return new File(new File(indexDirectory, String.valueOf(resourceId)), "v" + URLEncoder.encode(version, "UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void link(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (IOException | UnsupportedOperationException ex) {
+            //Different file systems or no hard link support.
+            Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import be.maximvdw.spigotsite.SpigotSiteCore;
 import be.maximvdw.spigotsite.api.SpigotSiteAPI;
 import be.maximvdw.spigotsite.api.user.User;
 import com.gamerking195.dev.autoupdaterapi.util.UtilDownloader;
+import com.gamerking195.dev.autoupdaterapi.util.UtilHttp;
+import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
 import com.gamerking195.dev.autoupdaterapi.util.UtilSpigotCreds;
 import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.WebClient;
@@ -11,10 +13,15 @@ import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.logging.LogFactory;
 import org.bstats.bukkit.Metrics;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,10 +43,23 @@ public final class AutoUpdaterAPI extends JavaPlugin {
 
     @Getter private static AutoUpdaterAPI instance;
     @Getter private SpigotSiteAPI api;
+    @Getter private SourceSelector sourceSelector;
+    @Getter private VersionCheckService versionCheckService;
+    @Getter private VersionCache versionCache;
+    @Getter private UpdateScheduler updateScheduler;
+    @Getter private UpdateNotifier updateNotifier;
+    @Getter private WebhookListener webhookListener;
+    @Getter private ArtifactCache artifactCache;
+    @Getter private InstallHistory installHistory;
+    @Getter private LifecycleScheduler lifecycleScheduler;
+    //Tried in order before every full download.
+    @Getter private final List<PatchSource> patchSources = new CopyOnWriteArrayList<>();
 
     @Getter @Setter private WebClient webClient;
     @Getter @Setter private User currentUser;
     @Getter @Setter private boolean debug = false;
+    @Getter @Setter private UpdatePolicy updatePolicy = UpdatePolicy.NEWER;
+    @Getter @Setter private boolean stagedUpdates = false;
 
     private Logger log;
 
@@ -48,6 +68,84 @@ public final class AutoUpdaterAPI extends JavaPlugin {
         instance = this;
         log = getLogger();
 
+        saveDefaultConfig();
+
+        UtilHttp.setConnectTimeout(getConfig().getInt("http.connect-timeout-ms", 5000));
+        UtilHttp.setReadTimeout(getConfig().getInt("http.read-timeout-ms", 15000));
+
+        try {
+            updatePolicy = UpdatePolicy.valueOf(getConfig().getString("update-policy", "NEWER").toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            log.warning("Unknown update-policy '" + getConfig().getString("update-policy") + "', using NEWER.");
+        }
+
+        stagedUpdates = getConfig().getBoolean("staged-updates", false);
+
+        UtilPlugin.probe();
+
+        versionCache = new VersionCache(new File(getDataFolder(), "version-cache.yml"),
+                getConfig().getLong("version-check.cache-ttl-seconds", 300) * 1000,
+                getConfig().getLong("version-check.failure-ttl-seconds", 30) * 1000);
+        versionCache.load();
+
+        sourceSelector = new SourceSelector();
+        versionCheckService = new VersionCheckService(getConfig().getInt("version-check.parallelism", 8));
+        versionCheckService.setHedging(getConfig().getBoolean("version-check.hedging.enabled", false));
+        versionCheckService.setHedgePercentile(getConfig().getDouble("version-check.hedging.percentile", 95));
+        versionCheckService.setHedgeMinDelayMillis(getConfig().getLong("version-check.hedging.min-delay-ms", 250));
+
+        DownloadEngine.setSegmented(getConfig().getBoolean("download.segmented.enabled", false));
+        DownloadEngine.setMaxSegments(getConfig().getInt("download.segmented.max-segments", 4));
+        DownloadEngine.setMinSegmentSize(getConfig().getLong("download.segmented.min-segment-kb", 2048) * 1024);
+        DownloadEngine.setSegmentTargetMillis(getConfig().getLong("download.segmented.target-seconds", 10) * 1000);
+
+        ProgressPublisher.setPeriodTicks(getConfig().getLong("download.progress-period-ticks", 10));
+
+        Preflight.setReserveBytes(getConfig().getLong("download.reserve-free-mb", 16) * 1024 * 1024);
+
+        long bandwidthLimit = getConfig().getLong("bandwidth.limit-kbps", 0) * 1024;
+        long onlineBandwidthLimit = getConfig().getLong("bandwidth.players-online-limit-kbps", 0) * 1024;
+        DownloadEngine.getGlobalLimiter().setBytesPerSecond(bandwidthLimit);
+
+        if (onlineBandwidthLimit > 0) {
+            //Switch to the lower limit while anyone is playing, checked every 5 seconds.
+            new BukkitRunnable() {
+                @Override
+                public void run() {
+                    if (getServer().getOnlinePlayers().isEmpty())
+                        DownloadEngine.getGlobalLimiter().setBytesPerSecond(bandwidthLimit);
+                    else
+                        DownloadEngine.getGlobalLimiter().setBytesPerSecond(bandwidthLimit > 0 ? Math.min(bandwidthLimit, onlineBandwidthLimit) : onlineBandwidthLimit);
+                }
+            }.runTaskTimer(instance, 0L, 100L);
+        }
+
+        String patchMirror = getConfig().getString("delta.mirror-url", "");
+        if (!patchMirror.isEmpty())
+            patchSources.add(new HttpPatchSource(patchMirror));
+
+        if (getConfig().getBoolean("artifact-cache.enabled", true)) {
+            String directory = getConfig().getString("artifact-cache.directory", "");
+            artifactCache = new ArtifactCache(directory.isEmpty() ? new File(getDataFolder(), "artifacts") : new File(directory));
+            artifactCache.setKeepVersions(getConfig().getInt("artifact-cache.keep-versions", 3));
+            artifactCache.setMaxSizeBytes(getConfig().getLong("artifact-cache.max-size-mb", 512) * 1024 * 1024);
+        }
+
+        updateScheduler = new UpdateScheduler(getConfig().getLong("scheduler.interval-minutes", 60) * 60000,
+                getConfig().getLong("scheduler.jitter-seconds", 300) * 1000,
+                getConfig().getLong("scheduler.retry-seconds", 60) * 1000,
+                getConfig().getLong("scheduler.max-backoff-minutes", 360) * 60000);
+        updateNotifier = new UpdateNotifier();
+        installHistory = new InstallHistory(new File(getDataFolder(), "history"));
+
+        lifecycleScheduler = new LifecycleScheduler();
+        lifecycleScheduler.setTickBudgetMillis(getConfig().getLong("lifecycle.tick-budget-ms", 10));
+        lifecycleScheduler.start();
+
+        AutoUpdaterCommand command = new AutoUpdaterCommand();
+        getCommand("autoupdaterapi").setExecutor(command);
+        getCommand("autoupdaterapi").setTabCompleter(command);
+
         //Setup spigot credential files.
         UtilSpigotCreds.getInstance().init();
 
@@ -109,17 +207,72 @@ public final class AutoUpdaterAPI extends JavaPlugin {
             }
         }.runTaskAsynchronously(instance);
 
+        if (getConfig().getBoolean("scheduler.enabled", true))
+            updateScheduler.start();
+
+        if (getConfig().getBoolean("notifier.enabled", true))
+            getServer().getPluginManager().registerEvents(updateNotifier, this);
+
+        if (getConfig().getBoolean("webhook.enabled", false)) {
+            webhookListener = new WebhookListener(getConfig().getString("webhook.bind-address", "127.0.0.1"),
+                    getConfig().getInt("webhook.port", 8970),
+                    getConfig().getString("webhook.token", ""));
+
+            try {
+                webhookListener.start();
+            } catch (IOException ex) {
+                printError(ex, "Error occurred while starting the update webhook listener.");
+                webhookListener = null;
+            }
+        }
+
+        //Persist version lookups every 5 minutes so a crash doesn't lose them.
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                versionCache.save();
+            }
+        }.runTaskTimerAsynchronously(instance, 6000L, 6000L);
+
         //Statistics
         new Metrics(instance);
 
         log.info("AutoUpdaterAPI V" + getDescription().getVersion() + " enabled!");
     }
 
+    public void onDisable() {
+        if (webhookListener != null)
+            webhookListener.stop();
+
+        if (updateScheduler != null)
+            updateScheduler.stop();
+
+        if (lifecycleScheduler != null)
+            lifecycleScheduler.stop();
+
+        if (versionCheckService != null)
+            versionCheckService.shutdown();
+
+        if (versionCache != null)
+            versionCache.save();
+    }
+
     public void resetUser() {
         AutoUpdaterAPI.getInstance().setCurrentUser(null);
         UtilSpigotCreds.getInstance().reset();
     }
 
+    /**
+     * Swaps a plugin back to the version it had before its last update, using the jar kept in the artifact cache.
+     * Nothing is downloaded, the old jar is staged asynchronously and the swap itself happens on the main thread.
+     *
+     * @param plugin The plugin to roll back.
+     * @return A future that is completed with the outcome, with the restored plugin if it succeeded.
+     */
+    public CompletableFuture<UpdateResult> rollback(Plugin plugin) {
+        return Rollback.rollback(plugin);
+    }
+
     public void printError(Exception ex) {
         this.log.severe("A severe error has occurred with AutoUpdaterAPI.");
         this.log.severe("If you cannot figure out this error on your own (e.g. a config error) please copy and paste everything from here to END ERROR and post it at https://github.com/fl0gic/AutoUpdaterAPI/issues.");
@@ -0,0 +1,93 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handles /autoupdaterapi.
+ */
+public class AutoUpdaterCommand implements CommandExecutor, TabCompleter {
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 2 && args[0].equalsIgnoreCase("rollback")) {
+            if (!sender.hasPermission("autoupdaterapi.rollback")) {
+                send(sender, "&cYou don't have permission to roll plugins back.");
+                return true;
+            }
+
+            Plugin plugin = Bukkit.getPluginManager().getPlugin(args[1]);
+
+            if (plugin == null) {
+                send(sender, "&cThere is no plugin called " + args[1] + ".");
+                return true;
+            }
+
+            send(sender, "&7Rolling " + plugin.getName() + " back...");
+
+            AutoUpdaterAPI.getInstance().rollback(plugin).thenAccept(result -> dispatchResult(sender, result));
+
+            return true;
+        }
+
+        send(sender, "&7Usage: /" + label + " rollback <plugin>");
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length == 1)
+            return "rollback".startsWith(args[0].toLowerCase()) ? Collections.singletonList("rollback") : Collections.emptyList();
+
+        if (args.length == 2 && args[0].equalsIgnoreCase("rollback")) {
+            List<String> names = new ArrayList<>();
+
+            Arrays.stream(Bukkit.getPluginManager().getPlugins())
+                    .map(Plugin::getName)
+                    .filter(name -> name.toLowerCase().startsWith(args[1].toLowerCase()))
+                    .forEach(names::add);
+
+            return names;
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * A failed rollback completes on an async thread, the sender is only messaged from the main thread.
+     */
+    private void dispatchResult(CommandSender sender, UpdateResult result) {
+        if (Bukkit.isPrimaryThread()) {
+            sendResult(sender, result);
+            return;
+        }
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                sendResult(sender, result);
+            }
+        }.runTask(AutoUpdaterAPI.getInstance());
+    }
+
+    private void sendResult(CommandSender sender, UpdateResult result) {
+        if (result.isSuccessful())
+            send(sender, "&aRolled " + result.getPluginName() + " back to V" + result.getPlugin().getDescription().getVersion() + ".");
+        else
+            send(sender, "&cCould not roll " + result.getPluginName() + " back: " + (result.getException() == null ? "check the console." : result.getException().getMessage()));
+    }
+
+    private void send(CommandSender sender, String message) {
+        sender.sendMessage(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
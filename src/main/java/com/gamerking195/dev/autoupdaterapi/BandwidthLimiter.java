@@ -0,0 +1,78 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting how fast downloads may read, shared by every download it is given to.
+ *
+ * The bucket holds at most one second of tokens, so an idle limiter allows a short burst but never more than its rate on average.
+ * Readers that take more tokens than are available go into debt and sleep until it is paid off, which keeps concurrent
+ * downloads fair without a queue.
+ */
+public class BandwidthLimiter {
+    //Bytes per second, 0 or less means unlimited.
+    private volatile long bytesPerSecond;
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate, running downloads pick it up with their next read.
+     *
+     * @param bytesPerSecond The new rate in bytes per second, 0 or less to disable the limit.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if (this.bytesPerSecond != bytesPerSecond)
+            tokens = Math.min(tokens, Math.max(0, bytesPerSecond));
+
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Takes tokens for data that was just read, sleeping as long as needed to stay within the rate.
+     *
+     * @param bytes The amount of bytes read.
+     * @throws InterruptedIOException If the thread was interrupted while waiting.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+
+        synchronized (this) {
+            long rate = bytesPerSecond;
+
+            if (rate <= 0)
+                return;
+
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+
+            tokens -= bytes;
+
+            if (tokens >= 0)
+                return;
+
+            waitNanos = (long) (-tokens * 1e9 / rate);
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth.");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Swaps several plugins for their staged jars in a single main thread task, unloading dependents before the plugins they depend on
+ * and loading providers before their dependents, so no plugin ever sees one of its dependencies missing.
+ *
+ * Jars can either be added directly followed by {@link #swap()}, or updaters can take part through {@link Updater#setBatch(BatchSwap)},
+ * in which case the swap starts as soon as every participating updater has either staged its jar or failed.
+ */
+public class BatchSwap {
+    private final List<Swap> swaps = new ArrayList<>();
+    //Updaters that joined and haven't added their jar or dropped out yet.
+    private int participants;
+    private boolean started;
+
+    /**
+     * Registers an updater that will add its jar later, the batch won't start on its own before it has.
+     */
+    synchronized void join() {
+        participants++;
+    }
+
+    /**
+     * Drops an updater that failed before staging its jar.
+     */
+    synchronized void leave() {
+        participants--;
+
+        if (participants == 0 && !swaps.isEmpty() && !started)
+            start();
+    }
+
+    /**
+     * Adds a staged jar to the batch.
+     *
+     * @param plugin The plugin that is replaced.
+     * @param staged The verified staged jar.
+     * @param target Where the new jar should be loaded from, the old jar is deleted if it lives somewhere else.
+     * @return A future that is completed with the outcome once the batch has been swapped.
+     */
+    public CompletableFuture<UpdateResult> add(Plugin plugin, File staged, File target) {
+        Swap swap = new Swap(plugin, staged, target);
+
+        synchronized (this) {
+            if (started) {
+                swap.result.complete(new UpdateResult(false, new IllegalStateException("The batch has already been swapped."), plugin, plugin.getName()));
+                return swap.result;
+            }
+
+            swaps.add(swap);
+        }
+
+        return swap.result;
+    }
+
+    /**
+     * Adds a staged jar that was added by a participating updater, starting the swap if it was the last one.
+     */
+    synchronized CompletableFuture<UpdateResult> arrive(Plugin plugin, File staged, File target) {
+        CompletableFuture<UpdateResult> result = add(plugin, staged, target);
+
+        participants--;
+
+        if (participants == 0 && !started)
+            start();
+
+        return result;
+    }
+
+    /**
+     * Swaps every jar added so far, the plugin descriptions are read asynchronously and the swap itself is done in one main thread task.
+     */
+    public synchronized void swap() {
+        if (!started)
+            start();
+    }
+
+    private void start() {
+        started = true;
+        List<Swap> batch = new ArrayList<>(swaps);
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                for (Swap swap : batch) {
+                    try {
+                        Staging.verify(swap.staged);
+                        swap.description = describe(swap.staged);
+                        swap.oldJar = UtilPlugin.getJarFile(swap.plugin);
+                        swap.replacedInPlace = swap.oldJar.getCanonicalFile().equals(swap.target.getCanonicalFile());
+                    } catch (Exception ex) {
+                        swap.fail(ex);
+                    }
+                }
+
+                List<Swap> order = order(batch);
+
+                new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        swap(order);
+                    }
+                }.runTask(AutoUpdaterAPI.getInstance());
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+    }
+
+    private void swap(List<Swap> order) {
+        long start = System.nanoTime();
+
+        //Dependents go first so nothing is left running against a provider that's gone.
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Swap swap = order.get(i);
+            if (swap.result.isDone())
+                continue;
+
+            try {
+                swap.loader = UtilPlugin.detach(swap.plugin);
+                Staging.promote(swap.staged, swap.target, swap.loader);
+                swap.promoted = true;
+            } catch (Exception ex) {
+                swap.fail(ex);
+            }
+        }
+
+        //Bukkit only resolves dependencies against plugins that are already loaded, so providers are loaded first.
+        for (Swap swap : order) {
+            if (swap.result.isDone())
+                continue;
+
+            try {
+                swap.updated = Bukkit.getPluginManager().loadPlugin(swap.target);
+            } catch (Exception ex) {
+                swap.fail(ex);
+            }
+        }
+
+        for (Swap swap : order) {
+            if (swap.result.isDone())
+                continue;
+
+            try {
+                Bukkit.getPluginManager().enablePlugin(swap.updated);
+                swap.result.complete(new UpdateResult(true, null, swap.updated, swap.updated.getName()));
+            } catch (Exception ex) {
+                swap.fail(ex);
+            }
+        }
+
+        if (AutoUpdaterAPI.getInstance().isDebug())
+            AutoUpdaterAPI.getInstance().getLogger().info("Swapped " + order.size() + " plugin(s) in " + String.format("%.2f", (System.nanoTime() - start) / 1000000D) + "ms.");
+
+        for (Swap swap : order) {
+            if (swap.loader != null)
+                UtilPlugin.releaseAsync(swap.loader, swap.promoted && !swap.replacedInPlace ? swap.oldJar : null);
+        }
+    }
+
+    /**
+     * Sorts the swaps so every plugin comes after the plugins in the batch it depends on, soft depends on or has to load after.
+     * Plugins caught in a dependency cycle keep the order they were added in.
+     */
+    private List<Swap> order(List<Swap> batch) {
+        Map<String, Swap> byName = new HashMap<>();
+        for (Swap swap : batch) {
+            if (!swap.result.isDone())
+                byName.put(swap.description.getName(), swap);
+        }
+
+        Map<Swap, Set<Swap>> providers = new HashMap<>();
+        for (Swap swap : batch) {
+            if (!swap.result.isDone())
+                providers.put(swap, new HashSet<>());
+        }
+
+        for (Swap swap : providers.keySet()) {
+            PluginDescriptionFile description = swap.description;
+
+            for (String name : concat(description.getDepend(), description.getSoftDepend())) {
+                Swap provider = byName.get(name);
+                if (provider != null && provider != swap)
+                    providers.get(swap).add(provider);
+            }
+
+            //"loadbefore" is the same relation seen from the other side.
+            for (String name : concat(description.getLoadBefore())) {
+                Swap dependent = byName.get(name);
+                if (dependent != null && dependent != swap)
+                    providers.get(dependent).add(swap);
+            }
+        }
+
+        Set<Swap> order = new LinkedHashSet<>();
+        boolean progress = true;
+
+        while (progress) {
+            progress = false;
+
+            for (Swap swap : batch) {
+                if (swap.result.isDone() || order.contains(swap))
+                    continue;
+
+                if (order.containsAll(providers.get(swap))) {
+                    order.add(swap);
+                    progress = true;
+                }
+            }
+        }
+
+        for (Swap swap : batch) {
+            if (!swap.result.isDone() && order.add(swap))
+                AutoUpdaterAPI.getInstance().getLogger().warning(swap.description.getName() + " is part of a dependency cycle, swapping it in the order it was added.");
+        }
+
+        return new ArrayList<>(order);
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... lists) {
+        List<String> names = new ArrayList<>();
+
+        for (List<String> list : lists) {
+            if (list != null)
+                names.addAll(list);
+        }
+
+        return names;
+    }
+
+    private static PluginDescriptionFile describe(File jar) throws Exception {
+        try (JarFile jarFile = new JarFile(jar)) {
+            ZipEntry entry = jarFile.getEntry("plugin.yml");
+            if (entry == null)
+                throw new IOException(jar.getName() + " does not contain a plugin.yml.");
+
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                return new PluginDescriptionFile(in);
+            }
+        }
+    }
+
+    private static class Swap {
+        private final Plugin plugin;
+        private final File staged;
+        private final File target;
+        private final CompletableFuture<UpdateResult> result = new CompletableFuture<>();
+
+        private PluginDescriptionFile description;
+        private File oldJar;
+        private boolean replacedInPlace;
+        private ClassLoader loader;
+        private boolean promoted;
+        private Plugin updated;
+
+        private Swap(Plugin plugin, File staged, File target) {
+            this.plugin = plugin;
+            this.staged = staged;
+            this.target = target;
+        }
+
+        private void fail(Exception ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while swapping " + plugin.getName() + ".");
+            result.complete(new UpdateResult(false, ex, Bukkit.getPluginManager().getPlugin(plugin.getName()), plugin.getName()));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import com.gamerking195.dev.autoupdaterapi.util.UtilHttp;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download engine shared by {@link Updater} and {@link PremiumUpdater}.
+ *
+ * Data is read from the response stream into a heap buffer that is reused per thread and written with positional
+ * {@link FileChannel} writes, so a download allocates nothing once it is running, and progress is only published
+ * through a {@link DownloadProgress} counter.
+ * Downloads go through a {@link PartialDownload} so failed downloads can be resumed.
+ *
+ * Large files from servers that accept ranges can optionally be fetched over several connections at once, each
+ * writing its range straight into the part file at its offset.
+ *
+ * Every read is throttled by the global {@link BandwidthLimiter} and the download's own limiter, if it has one.
+ */
+public class DownloadEngine {
+    //About what a socket receive buffer holds, a single read from the response stream rarely returns more.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //Heap buffers, the response is an InputStream so its data always arrives in a byte array first.
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    //Should large downloads be split over several connections.
+    @Getter @Setter private static boolean segmented;
+    //The most connections a single download may use.
+    @Getter @Setter private static int maxSegments = 4;
+    //Files or ranges smaller than this are never split.
+    @Getter @Setter private static long minSegmentSize = 2 * 1024 * 1024;
+    //Use enough segments to finish within this time at the throughput a single connection achieved before.
+    @Getter @Setter private static long segmentTargetMillis = 10_000;
+
+    //Limits every download together, unlimited unless configured.
+    @Getter private static final BandwidthLimiter globalLimiter = new BandwidthLimiter(0);
+    //Reads are kept small while a limit is active, so the rate is smooth instead of a large read followed by a long sleep.
+    private static final int LIMITED_READ_SIZE = 16 * 1024;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService segmentExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "AutoUpdaterAPI-Download-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Downloads a url to a file using the shared HTTP transport.
+     *
+     * The data is written to a part file first; if an earlier attempt left one behind, the download continues where it
+     * stopped with a Range request and falls back to a full download if the server doesn't honour it.
+     *
+     * The SHA-256 of the file is available from {@link PartialDownload#getSha256()} afterwards. A single connection computes it
+     * while the file streams, a segmented download hashes the finished file in one extra pass.
+     *
+     * @param partial  The partial download of the url to the target file, which is only replaced once the download is complete.
+     * @param progress The counter to report progress to.
+     * @return The size of the downloaded file.
+     * @throws IOException If the download failed, the part file is kept so it can be resumed.
+     */
+    public static long download(PartialDownload partial, DownloadProgress progress) throws IOException {
+        String url = partial.getUrl();
+        long offset = partial.getResumeOffset();
+
+        if (offset == 0 && segmented) {
+            try {
+                long size = downloadSegmented(url, partial, progress);
+
+                if (size >= 0)
+                    return size;
+            } catch (IOException ex) {
+                //The part file is already full length so it can't be resumed, start over with a single connection.
+                debug("Segmented download of " + partial.getTarget().getName() + " failed, retrying with one connection: " + ex.getMessage());
+
+                partial.discard();
+                progress.reset();
+            }
+        }
+
+        HttpURLConnection connection = UtilHttp.openConnection(url);
+
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+
+            if (partial.getIfRange() != null)
+                connection.setRequestProperty("If-Range", partial.getIfRange());
+
+            if (connection.getResponseCode() == 416) {
+                //The part file doesn't fit the file on the server anymore.
+                UtilHttp.discard(connection);
+                partial.discard();
+                return download(partial, progress);
+            }
+        }
+
+        try (InputStream in = UtilHttp.openStream(connection)) {
+            long resumeAt = getRangeStart(connection) == offset ? offset : 0;
+            long length = connection.getContentLengthLong();
+
+            if (resumeAt > 0) {
+                length = length < 0 ? -1 : resumeAt + length;
+
+                debug("Resuming download of " + partial.getTarget().getName() + " at " + resumeAt + " bytes.");
+            }
+
+            return download(in, partial, resumeAt, length, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), progress);
+        }
+    }
+
+    /**
+     * Copies a stream into a partial download and completes it.
+     *
+     * @param in           The stream to copy, it is not closed.
+     * @param partial      The partial download to write to.
+     * @param offset       The offset the stream's data starts at, 0 if it contains the whole file.
+     * @param length       The full length of the file, -1 if unknown.
+     * @param etag         The ETag of the response, may be null.
+     * @param lastModified The Last-Modified header of the response, may be null.
+     * @param progress     The counter to report progress to.
+     * @return The size of the downloaded file.
+     * @throws IOException If reading or writing failed, the part file is kept so it can be resumed.
+     */
+    public static long download(InputStream in, PartialDownload partial, long offset, long length, String etag, String lastModified, DownloadProgress progress) throws IOException {
+        if (length > offset)
+            Preflight.checkSpace(partial.getPartFile().getParentFile(), length - offset);
+
+        partial.begin(length, etag, lastModified);
+
+        //Keep the estimate the updater may have set if the server didn't send a length.
+        if (length >= 0)
+            progress.setTotal(length);
+
+        progress.add(offset);
+
+        //Only the part that was written by an earlier attempt has to be read again.
+        MessageDigest digest = UtilHash.sha256();
+        if (offset > 0)
+            UtilHash.update(digest, partial.getPartFile(), offset);
+
+        long transferred;
+        try (FileChannel out = partial.open(offset)) {
+            transferred = transfer(in, out, offset, progress, digest);
+        }
+
+        partial.complete(digest);
+        return offset + transferred;
+    }
+
+    /**
+     * Downloads a url over several connections if the server supports ranges and the file is large enough to be worth it.
+     *
+     * @return The size of the downloaded file, or -1 if the file should be downloaded with a single connection instead.
+     * @throws IOException If the download failed after it was started.
+     */
+    private static long downloadSegmented(String url, PartialDownload partial, DownloadProgress progress) throws IOException {
+        HttpURLConnection probe = UtilHttp.openConnection(url);
+        probe.setRequestMethod("HEAD");
+        probe.setRequestProperty("Accept-Encoding", "identity");
+
+        int status = probe.getResponseCode();
+        long length = probe.getContentLengthLong();
+        String etag = probe.getHeaderField("ETag");
+        String lastModified = probe.getHeaderField("Last-Modified");
+        //Ranges are requested from wherever the url redirected to, so not every segment has to follow the redirect again.
+        String location = probe.getURL().toString();
+        boolean ranges = "bytes".equalsIgnoreCase(probe.getHeaderField("Accept-Ranges"));
+        probe.disconnect();
+
+        int segments = getSegmentCount(new URL(url).getHost(), length);
+
+        if (status != HttpURLConnection.HTTP_OK || !ranges || segments < 2)
+            return -1;
+
+        debug("Downloading " + partial.getTarget().getName() + " (" + length + " bytes) in " + segments + " segments.");
+
+        Preflight.checkSpace(partial.getPartFile().getParentFile(), length);
+
+        partial.begin(length, etag, lastModified, true);
+        progress.setTotal(length);
+        progress.setSegments(segments);
+
+        Preflight.extend(partial.getPartFile(), length);
+
+        String validator = partial.getIfRange();
+
+        try (FileChannel out = FileChannel.open(partial.getPartFile().toPath(), StandardOpenOption.WRITE)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            long segmentSize = (length + segments - 1) / segments;
+
+            for (long start = 0; start < length; start += segmentSize) {
+                long segmentStart = start;
+                long segmentEnd = Math.min(length, start + segmentSize) - 1;
+
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        downloadRange(location, validator, out, segmentStart, segmentEnd, progress);
+                    } catch (IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, segmentExecutor));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        }
+
+        //Ranges arrive out of order and SHA-256 can't be combined from per range digests, so the finished file is read once more to hash it.
+        //The hash has to be of the whole file, it is what the cache and patches identify jars by.
+        partial.complete(null);
+        return length;
+    }
+
+    /**
+     * Fetches one range of a file and writes it at its own position in the shared channel.
+     */
+    private static void downloadRange(String url, String validator, FileChannel out, long start, long end, DownloadProgress progress) throws IOException {
+        HttpURLConnection connection = UtilHttp.openConnection(url);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+
+        if (validator != null)
+            connection.setRequestProperty("If-Range", validator);
+
+        try (InputStream in = UtilHttp.openStream(connection)) {
+            //A full response means the file changed or the server ignored the range, even for the segment starting at 0.
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || getRangeStart(connection) != start)
+                throw new IOException("Server did not return the requested range " + start + "-" + end + " (HTTP " + connection.getResponseCode() + ").");
+
+            long transferred = transfer(in, out, start, progress, null);
+
+            if (transferred != end - start + 1)
+                throw new IOException("Range " + start + "-" + end + " ended after " + transferred + " bytes.");
+        }
+    }
+
+    /**
+     * Picks how many connections to use for a file, based on the throughput one connection to the host achieved before.
+     *
+     * @return The amount of segments, 1 if the file should not be split.
+     */
+    private static int getSegmentCount(String host, long length) {
+        if (length < minSegmentSize * 2)
+            return 1;
+
+        int segments = maxSegments;
+        //There is no plugin instance (and so no throughput history) when the engine runs outside of a server.
+        double throughput = AutoUpdaterAPI.getInstance() == null ? -1 : AutoUpdaterAPI.getInstance().getSourceSelector().getThroughput(host);
+
+        if (throughput > 0) {
+            //Bytes per second, so the target time has to be converted to seconds.
+            double singleMillis = length / throughput * 1000D;
+            segments = (int) Math.ceil(singleMillis / segmentTargetMillis);
+        }
+
+        return (int) Math.max(1, Math.min(Math.min(segments, maxSegments), length / minSegmentSize));
+    }
+
+    private static void debug(String message) {
+        if (AutoUpdaterAPI.getInstance() != null && AutoUpdaterAPI.getInstance().isDebug())
+            AutoUpdaterAPI.getInstance().getLogger().info(message);
+    }
+
+    /**
+     * @return The first byte of a 206 Partial Content response, 0 for any other response.
+     */
+    private static long getRangeStart(HttpURLConnection connection) throws IOException {
+        String contentRange = connection.getHeaderField("Content-Range");
+
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || contentRange == null)
+            return 0;
+
+        //bytes <start>-<end>/<length>
+        try {
+            String range = contentRange.trim().substring(contentRange.indexOf(' ') + 1);
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (RuntimeException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Copies a stream into a file channel starting at the given position.
+     * The stream is read straight into the buffer's array, wrapping it in a channel would copy every read again through
+     * a small intermediate array.
+     *
+     * @param source   The stream to read until its end, it is not closed.
+     * @param target   The file channel to write to using positional writes.
+     * @param position The position in the file to start writing at.
+     * @param progress The counter to report progress to, its limiter is applied as well as the global one.
+     * @param digest   A digest to feed the copied data to, may be null.
+     * @return The amount of bytes copied.
+     * @throws IOException If reading or writing failed.
+     */
+    public static long transfer(InputStream source, FileChannel target, long position, DownloadProgress progress, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        long transferred = 0;
+
+        BandwidthLimiter limiter = progress.getLimiter();
+
+        while (true) {
+            boolean limited = globalLimiter.isLimited() || (limiter != null && limiter.isLimited());
+
+            int read = source.read(buffer.array(), 0, limited ? LIMITED_READ_SIZE : BUFFER_SIZE);
+            if (read == -1)
+                break;
+
+            if (limited) {
+                globalLimiter.acquire(read);
+
+                if (limiter != null)
+                    limiter.acquire(read);
+            }
+
+            buffer.clear();
+            buffer.limit(read);
+
+            if (digest != null)
+                digest.update(buffer.array(), 0, read);
+
+            while (buffer.hasRemaining())
+                transferred += target.write(buffer, position + transferred);
+
+            progress.add(read);
+        }
+
+        return transferred;
+    }
+}
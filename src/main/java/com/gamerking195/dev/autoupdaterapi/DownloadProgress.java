@@ -0,0 +1,67 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counter updated by the {@link DownloadEngine} and read by whoever reports progress, so reporting never happens inside the copy loop.
+ * Also carries the bandwidth limit of a single download.
+ */
+public class DownloadProgress {
+    private final AtomicLong downloaded = new AtomicLong();
+    //Expected size in bytes, -1 if unknown.
+    private volatile long total = -1;
+    //Amount of connections the data was fetched over.
+    private volatile int segments = 1;
+    //Limits this download on top of the global limit, null for no extra limit.
+    private volatile BandwidthLimiter limiter;
+
+    public void add(long bytes) {
+        downloaded.addAndGet(bytes);
+    }
+
+    /**
+     * Forgets everything counted so far, used when a download has to start over.
+     */
+    public void reset() {
+        downloaded.set(0);
+        total = -1;
+        segments = 1;
+    }
+
+    public long getDownloaded() {
+        return downloaded.get();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public BandwidthLimiter getLimiter() {
+        return limiter;
+    }
+
+    public void setLimiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return The completed fraction between 0 and 1, or -1 if the total size is unknown.
+     */
+    public double getFraction() {
+        long expected = total;
+
+        return expected > 0 ? Math.min(1D, (double) downloaded.get() / expected) : -1;
+    }
+}
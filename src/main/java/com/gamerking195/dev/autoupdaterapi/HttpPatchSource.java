@@ -0,0 +1,37 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHttp;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+
+/**
+ * Retrieves patches from a mirror over HTTP, a missing patch is expected to answer 404.
+ */
+public class HttpPatchSource implements PatchSource {
+    //Supports %resource%, %from% and %to%, e.g. https://mirror.example.com/patches/%resource%/%from%/%to%.patch
+    @Getter private final String urlTemplate;
+
+    public HttpPatchSource(String urlTemplate) {
+        this.urlTemplate = urlTemplate;
+    }
+
+    @Override
+    public InputStream openPatch(int resourceId, String fromVersion, String toVersion) throws IOException {
+        String url = urlTemplate.replace("%resource%", String.valueOf(resourceId))
+                .replace("%from%", URLEncoder.encode(fromVersion, "UTF-8"))
+                .replace("%to%", URLEncoder.encode(toVersion, "UTF-8"));
+
+        HttpURLConnection connection = UtilHttp.openConnection(url);
+
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            UtilHttp.discard(connection);
+            return null;
+        }
+
+        return UtilHttp.openStream(connection);
+    }
+}
@@ -0,0 +1,124 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers which versions of every plugin were installed on this server, newest (the installed one) last, so updates can be undone.
+ *
+ * Every plugin has its own "history/&lt;plugin&gt;" file in the data folder with one "&lt;resource id&gt; &lt;version&gt;" line per install.
+ */
+public class InstallHistory {
+    //Lines kept per plugin.
+    private static final int MAX_ENTRIES = 20;
+
+    private final File directory;
+
+    public InstallHistory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Records that a version is now installed, the last entry is always the installed version.
+     */
+    public synchronized void push(String pluginName, int resourceId, String version) {
+        List<Entry> entries = read(pluginName);
+
+        if (!entries.isEmpty() && entries.get(entries.size() - 1).getVersion().equals(version))
+            return;
+
+        entries.add(new Entry(resourceId, version));
+
+        while (entries.size() > MAX_ENTRIES)
+            entries.remove(0);
+
+        write(pluginName, entries);
+    }
+
+    /**
+     * Records the version a plugin had before its first update, later updates already know what is installed.
+     */
+    public synchronized void pushInitial(String pluginName, int resourceId, String version) {
+        if (read(pluginName).isEmpty())
+            push(pluginName, resourceId, version);
+    }
+
+    /**
+     * @param pluginName The name of the plugin.
+     * @return The version that was installed before the current one, or null if there is none.
+     */
+    public synchronized Entry getPrevious(String pluginName) {
+        List<Entry> entries = read(pluginName);
+
+        return entries.size() < 2 ? null : entries.get(entries.size() - 2);
+    }
+
+    /**
+     * Records a rollback to the previous version, so the next rollback goes back further.
+     */
+    public synchronized void rollback(String pluginName) {
+        List<Entry> entries = read(pluginName);
+
+        if (entries.isEmpty())
+            return;
+
+        entries.remove(entries.size() - 1);
+        write(pluginName, entries);
+    }
+
+    private List<Entry> read(String pluginName) {
+        List<Entry> entries = new ArrayList<>();
+        File file = getFile(pluginName);
+
+        if (!file.isFile())
+            return entries;
+
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                int split = line.indexOf(' ');
+
+                if (split > 0)
+                    entries.add(new Entry(Integer.parseInt(line.substring(0, split)), line.substring(split + 1)));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while reading the install history of " + pluginName + ".");
+        }
+
+        return entries;
+    }
+
+    private void write(String pluginName, List<Entry> entries) {
+        List<String> lines = new ArrayList<>();
+        for (Entry entry : entries)
+            lines.add(entry.getResourceId() + " " + entry.getVersion());
+
+        try {
+            directory.mkdirs();
+            Files.write(getFile(pluginName).toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while saving the install history of " + pluginName + ".");
+        }
+    }
+
+    private File getFile(String pluginName) {
+        try {
+            return new File(directory, URLEncoder.encode(pluginName, "UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Getter @AllArgsConstructor public static class Entry {
+        private final int resourceId;
+        private final String version;
+    }
+}
@@ -0,0 +1,287 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zip entry level delta between two versions of a plugin jar.
+ *
+ * A patch is a zip containing "patch.properties" (format, from-digest, to-digest), "removed.txt" (names of the
+ * entries to drop, one per line) and the full contents of every added or changed entry under "entries/".
+ * Jars are compared by their content digest, the SHA-256 over the name and SHA-256 of every entry sorted by name,
+ * because the same entries can be compressed into different bytes. A patch is only applied to the jar it was made for
+ * and only kept if the result has the expected digest.
+ */
+public class JarPatch {
+    private static final String MANIFEST = "patch.properties";
+    private static final String REMOVED = "removed.txt";
+    private static final String ENTRIES = "entries/";
+    private static final int FORMAT = 1;
+
+    /**
+     * Tries every registered {@link PatchSource} to create the new version from the installed jar.
+     *
+     * @param plugin      The installed plugin.
+     * @param resourceId  The ID of the resource on Spigot.
+     * @param fromVersion The installed version.
+     * @param toVersion   The version to update to.
+     * @param target      The jar to create.
+     * @return The SHA-256 of the created jar, or null if no patch could be applied and the jar has to be downloaded.
+     */
+    public static String patch(Plugin plugin, int resourceId, String fromVersion, String toVersion, File target) {
+        List<PatchSource> sources = AutoUpdaterAPI.getInstance().getPatchSources();
+
+        if (sources.isEmpty())
+            return null;
+
+        File installed;
+        try {
+            installed = UtilPlugin.getJarFile(plugin);
+        } catch (Exception ex) {
+            return null;
+        }
+
+        if (!installed.isFile())
+            return null;
+
+        for (PatchSource source : sources) {
+            try (InputStream patch = source.openPatch(resourceId, fromVersion, toVersion)) {
+                if (patch == null)
+                    continue;
+
+                String sha256 = apply(installed, patch, target);
+
+                if (AutoUpdaterAPI.getInstance().isDebug())
+                    AutoUpdaterAPI.getInstance().getLogger().info("Patched " + plugin.getName() + " from " + fromVersion + " to " + toVersion + " using " + source.getClass().getSimpleName() + ".");
+
+                return sha256;
+            } catch (Exception ex) {
+                if (AutoUpdaterAPI.getInstance().isDebug())
+                    AutoUpdaterAPI.getInstance().getLogger().info("Could not patch " + plugin.getName() + " using " + source.getClass().getSimpleName() + ": " + ex.getMessage());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Applies a patch to a jar.
+     *
+     * @param from   The jar the patch was made for.
+     * @param patch  The patch, it is read fully but not closed.
+     * @param target The jar to create, it is only replaced if the patch applied cleanly.
+     * @return The SHA-256 of the created jar.
+     * @throws IOException If the patch is invalid, was made for another jar or didn't produce the expected jar.
+     */
+    public static String apply(File from, InputStream patch, File target) throws IOException {
+        Properties manifest = null;
+        Set<String> removed = new HashSet<>();
+        //Patches only contain what changed, so they are small enough to keep in memory.
+        Map<String, byte[]> entries = new TreeMap<>();
+        Map<String, Long> times = new HashMap<>();
+
+        ZipInputStream patchIn = new ZipInputStream(patch);
+        for (ZipEntry entry = patchIn.getNextEntry(); entry != null; entry = patchIn.getNextEntry()) {
+            if (entry.getName().equals(MANIFEST)) {
+                manifest = new Properties();
+                manifest.load(new InputStreamReader(new ByteArrayInputStream(readFully(patchIn)), StandardCharsets.UTF_8));
+            } else if (entry.getName().equals(REMOVED)) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(readFully(patchIn)), StandardCharsets.UTF_8));
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!line.isEmpty())
+                        removed.add(line);
+                }
+            } else if (entry.getName().startsWith(ENTRIES)) {
+                String name = entry.getName().substring(ENTRIES.length());
+                entries.put(name, readFully(patchIn));
+                times.put(name, entry.getTime());
+            }
+        }
+
+        if (manifest == null || !String.valueOf(FORMAT).equals(manifest.getProperty("format")))
+            throw new IOException("Not a supported patch.");
+
+        Map<String, byte[]> hashes = new TreeMap<>();
+
+        try (ZipFile fromZip = new ZipFile(from)) {
+            if (!manifest.getProperty("from-digest", "").equals(contentDigest(fromZip)))
+                throw new IOException("Patch was made for a different jar than " + from.getName() + ".");
+
+            File parent = target.getAbsoluteFile().getParentFile();
+            parent.mkdirs();
+            File temp = File.createTempFile(target.getName(), ".patching", parent);
+
+            MessageDigest fileDigest = UtilHash.sha256();
+
+            try {
+                try (ZipOutputStream out = new ZipOutputStream(new DigestOutputStream(new FileOutputStream(temp), fileDigest))) {
+                    //Keep the order of the old jar, so the manifest stays the first entry.
+                    for (Enumeration<? extends ZipEntry> it = fromZip.entries(); it.hasMoreElements(); ) {
+                        ZipEntry entry = it.nextElement();
+                        String name = entry.getName();
+
+                        if (removed.contains(name))
+                            continue;
+
+                        byte[] data = entries.remove(name);
+
+                        if (data == null) {
+                            try (InputStream in = fromZip.getInputStream(entry)) {
+                                data = readFully(in);
+                            }
+                        }
+
+                        write(out, name, entry.getTime(), data, hashes);
+                    }
+
+                    for (Map.Entry<String, byte[]> entry : entries.entrySet())
+                        write(out, entry.getKey(), times.get(entry.getKey()), entry.getValue(), hashes);
+                }
+
+                if (!manifest.getProperty("to-digest", "").equals(contentDigest(hashes)))
+                    throw new IOException("Patched jar does not match the expected content.");
+
+                try {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                temp.delete();
+            }
+
+            return UtilHash.toHex(fileDigest.digest());
+        }
+    }
+
+    /**
+     * Creates a patch between two jars, for mirrors that serve patches.
+     *
+     * @param from The old jar.
+     * @param to   The new jar.
+     * @param out  Where to write the patch to, it is not closed.
+     * @throws IOException If either jar could not be read.
+     */
+    public static void create(File from, File to, OutputStream out) throws IOException {
+        try (ZipFile fromZip = new ZipFile(from); ZipFile toZip = new ZipFile(to)) {
+            Map<String, byte[]> fromHashes = hashEntries(fromZip);
+            Map<String, byte[]> toHashes = hashEntries(toZip);
+
+            Properties manifest = new Properties();
+            manifest.setProperty("format", String.valueOf(FORMAT));
+            manifest.setProperty("from-digest", contentDigest(fromHashes));
+            manifest.setProperty("to-digest", contentDigest(toHashes));
+
+            StringBuilder removed = new StringBuilder();
+            for (String name : fromHashes.keySet()) {
+                if (!toHashes.containsKey(name))
+                    removed.append(name).append('\n');
+            }
+
+            ZipOutputStream patch = new ZipOutputStream(out);
+
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.store(manifestBytes, null);
+            write(patch, MANIFEST, -1, manifestBytes.toByteArray(), null);
+            write(patch, REMOVED, -1, removed.toString().getBytes(StandardCharsets.UTF_8), null);
+
+            for (Map.Entry<String, byte[]> entry : toHashes.entrySet()) {
+                if (MessageDigest.isEqual(entry.getValue(), fromHashes.get(entry.getKey())))
+                    continue;
+
+                ZipEntry toEntry = toZip.getEntry(entry.getKey());
+                try (InputStream in = toZip.getInputStream(toEntry)) {
+                    write(patch, ENTRIES + entry.getKey(), toEntry.getTime(), readFully(in), null);
+                }
+            }
+
+            patch.finish();
+        }
+    }
+
+    /**
+     * @return The content digest of a jar, see the class description.
+     */
+    public static String contentDigest(ZipFile zip) throws IOException {
+        return contentDigest(hashEntries(zip));
+    }
+
+    private static String contentDigest(Map<String, byte[]> hashes) {
+        MessageDigest digest = UtilHash.sha256();
+
+        //The map is sorted by name.
+        for (Map.Entry<String, byte[]> entry : hashes.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(entry.getValue());
+        }
+
+        return UtilHash.toHex(digest.digest());
+    }
+
+    private static Map<String, byte[]> hashEntries(ZipFile zip) throws IOException {
+        Map<String, byte[]> hashes = new TreeMap<>();
+
+        for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); ) {
+            ZipEntry entry = it.nextElement();
+
+            try (InputStream in = zip.getInputStream(entry)) {
+                hashes.put(entry.getName(), UtilHash.sha256().digest(readFully(in)));
+            }
+        }
+
+        return hashes;
+    }
+
+    private static void write(ZipOutputStream out, String name, long time, byte[] data, Map<String, byte[]> hashes) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+
+        if (time != -1)
+            entry.setTime(time);
+
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+
+        if (hashes != null)
+            hashes.put(name, UtilHash.sha256().digest(data));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
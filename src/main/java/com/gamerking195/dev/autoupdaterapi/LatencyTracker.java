@@ -0,0 +1,56 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a window of recent request latencies per host so percentiles can be estimated.
+ */
+public class LatencyTracker {
+    private static final int WINDOW = 64;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param host         The host the request was made to.
+     * @param latencyMillis How long the request took.
+     */
+    public void record(String host, long latencyMillis) {
+        windows.computeIfAbsent(host, ignored -> new Window()).add(latencyMillis);
+    }
+
+    /**
+     * @param host       The host to get the percentile for.
+     * @param percentile The percentile between 0 and 100.
+     * @return The estimated latency percentile in milliseconds, or -1 if no requests have been recorded for the host.
+     */
+    public long getPercentile(String host, double percentile) {
+        Window window = windows.get(host);
+
+        return window == null ? -1 : window.percentile(percentile);
+    }
+
+    private static class Window {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count == 0)
+                return -1;
+
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
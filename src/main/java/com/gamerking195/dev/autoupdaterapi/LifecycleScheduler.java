@@ -0,0 +1,158 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the main thread steps of updates (unloading, loading, enabling and the callbacks after) in the order they were submitted,
+ * but only as many per tick as fit in the configured budget, so several heavy plugins being swapped don't add up to one long lag spike.
+ *
+ * The cost of a step is predicted from what the same step of the same plugin cost last time, a step that wouldn't fit in what is left
+ * of the budget is deferred to the next tick. At least one step runs every tick so a single step larger than the budget still runs.
+ */
+public class LifecycleScheduler {
+    //A tick that started this much later than the previous one means the server is already lagging.
+    private static final long LAG_NANOS = 100_000_000L;
+    //Weight of the newest measurement in the per phase average.
+    private static final double ALPHA = 0.3;
+
+    public enum Phase {
+        UNLOAD, LOAD, ENABLE, CALLBACK
+    }
+
+    //Main thread time the scheduler may use per tick in milliseconds, 0 or less to run every queued step in the next tick.
+    @Getter @Setter private long tickBudgetMillis = 10;
+
+    private final Queue<Step<?>> queue = new ConcurrentLinkedQueue<>();
+    //Last cost in nanoseconds of a phase per plugin, "PHASE:plugin".
+    private final Map<String, Long> costs = new ConcurrentHashMap<>();
+    //Average cost in nanoseconds per phase, used for plugins that haven't been measured yet.
+    private final double[] averages = new double[Phase.values().length];
+
+    private BukkitTask task;
+    private long lastTick;
+
+    /**
+     * Queues a step to run on the main thread.
+     *
+     * @param phase The kind of step, used to predict its cost.
+     * @param pluginName The plugin the step belongs to, used to predict its cost.
+     * @param step The step itself.
+     * @return A future that is completed on the main thread with the result of the step, or exceptionally if it threw.
+     */
+    public <T> CompletableFuture<T> submit(Phase phase, String pluginName, Callable<T> step) {
+        Step<T> queued = new Step<>(phase, pluginName, step);
+        queue.add(queued);
+        return queued.result;
+    }
+
+    public void start() {
+        lastTick = System.nanoTime();
+
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }.runTaskTimer(AutoUpdaterAPI.getInstance(), 1L, 1L);
+    }
+
+    public void stop() {
+        if (task != null)
+            task.cancel();
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        boolean lagging = start - lastTick > LAG_NANOS;
+        lastTick = start;
+
+        if (queue.isEmpty())
+            return;
+
+        long budget = tickBudgetMillis * 1000000L;
+        AutoUpdaterAPI plugin = AutoUpdaterAPI.getInstance();
+        int ran = 0;
+
+        //Steps submitted by completed steps are picked up in the same tick if they still fit.
+        for (Step<?> step = queue.peek(); step != null; step = queue.peek()) {
+            //Once AutoUpdaterAPI unloaded itself this task won't run again, so whatever is left has to finish now.
+            if (ran > 0 && plugin.isEnabled()) {
+                if (lagging)
+                    break;
+
+                if (budget > 0 && System.nanoTime() - start + predict(step) > budget)
+                    break;
+            }
+
+            queue.poll();
+            run(step);
+            ran++;
+        }
+
+        if (AutoUpdaterAPI.getInstance().isDebug() && !queue.isEmpty())
+            AutoUpdaterAPI.getInstance().getLogger().info("Ran " + ran + " lifecycle step(s) in " + String.format("%.2f", (System.nanoTime() - start) / 1000000D) + "ms, deferring " + queue.size() + " to the next tick.");
+    }
+
+    private <T> void run(Step<T> step) {
+        long start = System.nanoTime();
+        T value;
+
+        try {
+            value = step.callable.call();
+        } catch (Exception ex) {
+            record(step, System.nanoTime() - start);
+            step.result.completeExceptionally(ex);
+            return;
+        }
+
+        record(step, System.nanoTime() - start);
+        step.result.complete(value);
+    }
+
+    private void record(Step<?> step, long nanos) {
+        costs.put(step.phase + ":" + step.pluginName, nanos);
+
+        int index = step.phase.ordinal();
+        averages[index] = averages[index] == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * averages[index];
+
+        if (AutoUpdaterAPI.getInstance().isDebug())
+            AutoUpdaterAPI.getInstance().getLogger().info(step.phase + " of " + step.pluginName + " took " + String.format("%.2f", nanos / 1000000D) + "ms.");
+    }
+
+    private long predict(Step<?> step) {
+        Long cost = costs.get(step.phase + ":" + step.pluginName);
+        return cost != null ? cost : (long) averages[step.phase.ordinal()];
+    }
+
+    /**
+     * @return The exception a step threw, unwrapped from the CompletionException of a future chain.
+     */
+    static Exception unwrap(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        return cause instanceof Exception ? (Exception) cause : new Exception(cause);
+    }
+
+    private static class Step<T> {
+        private final Phase phase;
+        private final String pluginName;
+        private final Callable<T> callable;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Step(Phase phase, String pluginName, Callable<T> callable) {
+            this.phase = phase;
+            this.pluginName = pluginName;
+            this.callable = callable;
+        }
+    }
+}
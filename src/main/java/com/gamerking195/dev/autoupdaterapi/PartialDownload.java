@@ -0,0 +1,173 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import lombok.Getter;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A download in progress, written to "&lt;target&gt;.part" next to a small "&lt;target&gt;.part.yml" journal holding
+ * the source url, the expected length and the validators, so an interrupted download can be continued with a Range request.
+ */
+public class PartialDownload {
+    @Getter private final File target;
+    @Getter private final File partFile;
+    private final File journalFile;
+    @Getter private final String url;
+
+    @Getter private long length = -1;
+    @Getter private String etag;
+    @Getter private String lastModified;
+    //SHA-256 of the completed file.
+    @Getter private String sha256;
+
+    private boolean journaled;
+    //Segmented downloads write ranges out of order into a file extended to its full length, so the part file length says nothing about what was written.
+    private boolean segmented;
+
+    /**
+     * Opens the partial download for a target, a left over journal is only reused if it was written for the same url.
+     *
+     * @param target The file the download should end up in.
+     * @param url    The url the file is downloaded from.
+     */
+    public PartialDownload(File target, String url) {
+        this.target = target;
+        this.url = url;
+        partFile = new File(target.getPath() + ".part");
+        journalFile = new File(target.getPath() + ".part.yml");
+
+        if (journalFile.exists() && partFile.exists()) {
+            YamlConfiguration journal = YamlConfiguration.loadConfiguration(journalFile);
+
+            if (url.equals(journal.getString("url"))) {
+                length = journal.getLong("length", -1);
+                etag = journal.getString("etag");
+                lastModified = journal.getString("last-modified");
+                segmented = journal.getBoolean("segmented", false);
+                journaled = true;
+            }
+        }
+    }
+
+    /**
+     * @return The offset the download can be continued from, 0 if it has to start over.
+     */
+    public long getResumeOffset() {
+        if (!journaled || segmented || (etag == null && lastModified == null))
+            return 0;
+
+        long written = partFile.length();
+
+        return length > 0 && written >= length ? 0 : written;
+    }
+
+    /**
+     * @return The value for an If-Range header so the server only honours the range if the file didn't change, null if there is no usable validator.
+     */
+    public String getIfRange() {
+        //Weak validators are not allowed in If-Range.
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+
+        return lastModified;
+    }
+
+    /**
+     * Records what is being downloaded before any data is written.
+     *
+     * @param length       The full length of the file, -1 if unknown.
+     * @param etag         The ETag of the response, may be null.
+     * @param lastModified The Last-Modified header of the response, may be null.
+     * @throws IOException If the journal could not be written.
+     */
+    public void begin(long length, String etag, String lastModified) throws IOException {
+        begin(length, etag, lastModified, false);
+    }
+
+    /**
+     * Records what is being downloaded before any data is written.
+     *
+     * @param length       The full length of the file, -1 if unknown.
+     * @param etag         The ETag of the response, may be null.
+     * @param lastModified The Last-Modified header of the response, may be null.
+     * @param segmented    True if the file is written in ranges out of order, such a part file is never resumed.
+     * @throws IOException If the journal could not be written.
+     */
+    public void begin(long length, String etag, String lastModified, boolean segmented) throws IOException {
+        this.length = length;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.segmented = segmented;
+
+        YamlConfiguration journal = new YamlConfiguration();
+        journal.set("url", url);
+        journal.set("length", length);
+        journal.set("etag", etag);
+        journal.set("last-modified", lastModified);
+        journal.set("segmented", segmented);
+
+        if (!partFile.getParentFile().exists())
+            partFile.getParentFile().mkdirs();
+
+        journal.save(journalFile);
+        journaled = true;
+    }
+
+    /**
+     * Opens the part file for writing in order. It is not extended up front, so its length is always what was written and a download
+     * that was killed at any point resumes from there.
+     *
+     * @param offset The offset writing continues at, the part file is truncated to it.
+     * @return A channel to write the part file with.
+     * @throws IOException If the part file could not be opened.
+     */
+    public FileChannel open(long offset) throws IOException {
+        FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(offset);
+
+        return channel;
+    }
+
+    /**
+     * Verifies the part file is complete and moves it to the target.
+     *
+     * @param digest The SHA-256 digest that was fed the whole file while it was written, or null to hash the file now.
+     * @throws IOException If the part file is shorter or longer than expected (it is kept so it can be resumed) or could not be moved.
+     */
+    public void complete(MessageDigest digest) throws IOException {
+        if (length >= 0 && partFile.length() != length)
+            throw new IOException("Download of " + target.getName() + " is incomplete, got " + partFile.length() + " of " + length + " bytes.");
+
+        sha256 = digest == null ? UtilHash.sha256(partFile) : UtilHash.toHex(digest.digest());
+
+        try {
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        journalFile.delete();
+    }
+
+    /**
+     * Deletes the part file and journal so the next attempt starts over.
+     */
+    public void discard() {
+        partFile.delete();
+        journalFile.delete();
+        journaled = false;
+        length = -1;
+        etag = null;
+        lastModified = null;
+        segmented = false;
+    }
+}
@@ -0,0 +1,22 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Somewhere delta patches between two versions of a resource can be retrieved from, see {@link JarPatch} for the format.
+ *
+ * Sources are registered with {@link AutoUpdaterAPI#getPatchSources()} and tried in order before a full download.
+ */
+public interface PatchSource {
+    /**
+     * Opens the patch that turns one version of a resource into another, called asynchronously.
+     *
+     * @param resourceId  The ID of the resource on Spigot.
+     * @param fromVersion The installed version.
+     * @param toVersion   The version to update to.
+     * @return The patch, or null if this source has no patch between the versions.
+     * @throws IOException If the source failed, the next source or a full download is used instead.
+     */
+    InputStream openPatch(int resourceId, String fromVersion, String toVersion) throws IOException;
+}
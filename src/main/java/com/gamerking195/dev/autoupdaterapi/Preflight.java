@@ -0,0 +1,110 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHttp;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Checks an update can be stored before anything is downloaded or unloaded, so a full disk fails the update
+ * while the old plugin is still running instead of halfway through replacing it.
+ */
+public class Preflight {
+    //Free space that must remain after the download, so the server itself doesn't run out.
+    @Getter @Setter private static long reserveBytes = 16 * 1024 * 1024;
+
+    /**
+     * Looks up the expected size of a resource and checks it fits on the volume it is downloaded to, called asynchronously.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @param directory  The directory the jar is downloaded to.
+     * @return The expected size in bytes according to Spiget, or -1 if it is unknown.
+     * @throws IOException If there is not enough free space.
+     */
+    public static long check(int resourceId, File directory) throws IOException {
+        long expected = getExpectedSize(resourceId);
+
+        checkSpace(directory, Math.max(0, expected));
+
+        return expected;
+    }
+
+    /**
+     * @param directory The directory a file is written to, it doesn't have to exist yet.
+     * @param bytes     The amount of bytes that will be written.
+     * @throws IOException If the volume doesn't have that much free space plus the reserve.
+     */
+    public static void checkSpace(File directory, long bytes) throws IOException {
+        //getUsableSpace needs an existing directory.
+        File volume = directory.getAbsoluteFile();
+        while (volume != null && !volume.exists())
+            volume = volume.getParentFile();
+
+        if (volume == null)
+            return;
+
+        long usable = volume.getUsableSpace();
+        long required = bytes + reserveBytes;
+
+        if (usable < required)
+            throw new IOException("Not enough free space in " + volume.getPath() + ", " + (required / 1024) + " KB is required but only " + (usable / 1024) + " KB is available.");
+    }
+
+    /**
+     * @param resourceId The ID of the resource on Spigot.
+     * @return The (rounded) file size Spiget lists for the resource in bytes, or -1 if it is unknown.
+     */
+    public static long getExpectedSize(int resourceId) {
+        try {
+            JsonObject file = new JsonParser().parse(UtilHttp.readString("https://api.spiget.org/v2/resources/" + resourceId)).getAsJsonObject().getAsJsonObject("file");
+
+            if (file == null || !file.has("size"))
+                return -1;
+
+            double size = file.get("size").getAsDouble();
+            String unit = file.has("sizeUnit") ? file.get("sizeUnit").getAsString().toUpperCase() : "";
+
+            switch (unit) {
+                case "GB":
+                    size *= 1024;
+                    //fall through
+                case "MB":
+                    size *= 1024;
+                    //fall through
+                case "KB":
+                    size *= 1024;
+                    //fall through
+                case "B":
+                    return size > 0 ? (long) size : -1;
+                default:
+                    return -1;
+            }
+        } catch (Exception ex) {
+            if (AutoUpdaterAPI.getInstance().isDebug())
+                AutoUpdaterAPI.getInstance().getLogger().info("Could not retrieve the size of resource " + resourceId + ": " + ex.getMessage());
+
+            return -1;
+        }
+    }
+
+    /**
+     * Grows a file to its full size up front so ranges can be written at their offsets in any order.
+     * Most file systems only record the new length and leave a sparse file, no space is reserved, so a full disk is
+     * caught by {@link #checkSpace(File, long)} rather than here.
+     *
+     * @param file The file to grow.
+     * @param size The size to grow it to.
+     * @throws IOException If the file could not be grown.
+     */
+    public static void extend(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size)
+                raf.setLength(size);
+        }
+    }
+}
@@ -7,12 +7,12 @@ import be.maximvdw.spigotsite.api.user.exceptions.InvalidCredentialsException;
 import be.maximvdw.spigotsite.api.user.exceptions.TwoFactorAuthenticationException;
 import be.maximvdw.spigotsite.user.SpigotUser;
 import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
-import com.gamerking195.dev.autoupdaterapi.util.UtilReader;
 import com.gamerking195.dev.autoupdaterapi.util.UtilSpigotCreds;
 import com.gamerking195.dev.autoupdaterapi.util.UtilUI;
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.UnexpectedPage;
 import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.util.Cookie;
@@ -22,13 +22,15 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 /**
  * @author Caden Kriese (flogic)
  *
@@ -41,6 +43,7 @@ public class PremiumUpdater {
 
     private String dataFolderPath;
     private String currentVersion;
+    private Version installedVersion;
     private String pluginName;
 
     private User spigotUser;
@@ -50,6 +53,17 @@ public class PremiumUpdater {
 
     private boolean deleteUpdater;
     private boolean deleteOld;
+    //Download to the staging area and only swap the jars once the new one is verified.
+    private boolean staged;
+    //Limits this update's download on top of the global limit, null for none.
+    private BandwidthLimiter bandwidthLimiter;
+    //Size of the new jar according to Spiget, -1 if unknown.
+    private long expectedSize = -1;
+    private final List<ProgressListener> progressListeners = new ArrayList<>();
+    //Swaps the plugin together with the other updaters of the batch instead of on its own, null for none.
+    private BatchSwap batch;
+    //Has this updater already added its jar to the batch or dropped out of it.
+    private boolean batchDone;
 
     private int resourceId;
     private int loginAttempts;
@@ -58,6 +72,8 @@ public class PremiumUpdater {
 
     private UpdaterRunnable endTask;
 
+    private final CompletableFuture<UpdateResult> result = new CompletableFuture<>();
+
     /**
      * Instantiate PremiumUpdater
      *
@@ -72,6 +88,7 @@ public class PremiumUpdater {
         spigotUser = AutoUpdaterAPI.getInstance().getCurrentUser();
         dataFolderPath = AutoUpdaterAPI.getInstance().getDataFolder().getPath();
         currentVersion = plugin.getDescription().getVersion();
+        installedVersion = Version.parse(currentVersion);
         loginAttempts = 1;
         this.resourceId = resourceId;
         this.plugin = plugin;
@@ -81,6 +98,7 @@ public class PremiumUpdater {
         this.deleteOld = deleteOld;
         endTask = (successful, ex, updatedPlugin, pluginName) -> {
         };
+        result.thenAccept(this::dispatchEndTask);
 
         if (locale.getPluginName() != null) {
             pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion);
@@ -105,6 +123,7 @@ public class PremiumUpdater {
         spigotUser = AutoUpdaterAPI.getInstance().getCurrentUser();
         dataFolderPath = AutoUpdaterAPI.getInstance().getDataFolder().getPath();
         currentVersion = plugin.getDescription().getVersion();
+        installedVersion = Version.parse(currentVersion);
         loginAttempts = 1;
         this.resourceId = resourceId;
         this.plugin = plugin;
@@ -113,7 +132,7 @@ public class PremiumUpdater {
         this.deleteUpdater = deleteUpdater;
         this.deleteOld = deleteOld;
         this.endTask = endTask;
-
+        result.thenAccept(this::dispatchEndTask);
 
         if (locale.getPluginName() != null) {
             pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion);
@@ -125,69 +144,176 @@ public class PremiumUpdater {
 
     public String getLatestVersion() {
         try {
-            return UtilReader.readFrom("https://api.spigotmc.org/legacy/update.php?resource=" + resourceId);
+            return AutoUpdaterAPI.getInstance().getVersionCheckService().fetchLatestVersion(resourceId);
         } catch (Exception exception) {
             AutoUpdaterAPI.getInstance().printError(exception);
-            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", "&4NULL"));
+            UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", "&4NULL"));
         }
 
         return "";
     }
 
     /**
-     * Updates the plugin.
+     * Registers a listener that is told about the progress of the download on the main thread.
+     *
+     * @param listener The listener to add.
+     */
+    public void addProgressListener(ProgressListener listener) {
+        progressListeners.add(listener);
+    }
+
+    /**
+     * Limits how fast this update may download, on top of the global limit from the config.
+     *
+     * @param bytesPerSecond The limit in bytes per second, 0 or less for no extra limit.
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bandwidthLimiter = bytesPerSecond > 0 ? new BandwidthLimiter(bytesPerSecond) : null;
+    }
+
+    /**
+     * Swaps the plugin in the same main thread task as every other updater of the batch, in dependency order, instead of on its own.
+     * Set the batch on every participating updater before starting any of them, batched updates are always staged.
+     *
+     * @param batch The batch to take part in.
+     */
+    public void setBatch(BatchSwap batch) {
+        this.batch = batch;
+        batch.join();
+    }
+
+    /**
+     * Updates the plugin, see {@link #updateAsync()}.
      */
     public void update() {
+        updateAsync();
+    }
+
+    /**
+     * Updates the plugin without blocking the calling thread, the version lookup, purchase check and download are
+     * all run asynchronously and only the unload, load and enable steps are run on the main thread.
+     *
+     * @return A future that is completed with the outcome once the update has finished.
+     */
+    public CompletableFuture<UpdateResult> updateAsync() {
         startingTime = System.currentTimeMillis();
+        staged = batch != null || AutoUpdaterAPI.getInstance().isStagedUpdates();
 
-        UtilUI.sendActionBarSync(initiator, locale.getUpdatingNoVar() + " &8[RETRIEVING PLUGIN INFO]");
+        UtilUI.sendActionBar(initiator, locale.getUpdatingNoVar() + " &8[RETRIEVING PLUGIN INFO]");
 
-        String newVersion = getLatestVersion();
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                String newVersion = getLatestVersion();
 
-        if (currentVersion.equals(newVersion)) {
-            UtilUI.sendActionBarSync(initiator, "&c&lUPDATE FAILED &8[NO UPDATES AVAILABLE]");
-            endTask.run(false, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-            delete();
-            return;
-        }
+                //The lookup failure has already been reported.
+                if (newVersion.isEmpty()) {
+                    complete(false, null, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
 
-        spigotUser = AutoUpdaterAPI.getInstance().getCurrentUser();
+                if (!AutoUpdaterAPI.getInstance().getUpdatePolicy().shouldUpdate(installedVersion, Version.parse(newVersion))) {
+                    UtilUI.sendActionBar(initiator, "&c&lUPDATE FAILED &8[NO UPDATES AVAILABLE]");
+                    complete(false, null, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
 
-        if (locale.getPluginName() != null)
-            pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion);
+                spigotUser = AutoUpdaterAPI.getInstance().getCurrentUser();
 
-        locale.setFileName(locale.getFileName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
+                if (locale.getPluginName() != null)
+                    pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion);
 
-        if (spigotUser == null) {
-            authenticate(true);
-            UtilUI.sendActionBarSync(initiator, locale.getUpdatingNoVar() + " &8[AUTHENTICATING SPIGOT ACCOUNT]");
-            return;
-        }
+                locale.setFileName(locale.getFileName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
 
-        try {
-            for (Resource resource : AutoUpdaterAPI.getInstance().getApi().getResourceManager().getPurchasedResources(spigotUser)) {
-                if (resource.getResourceId() == resourceId) {
-                    this.resource = resource;
+                //Fail while the old plugin is untouched if the new one can't be stored.
+                try {
+                    expectedSize = Preflight.check(resourceId, staged ? Staging.getFile(locale.getFileName()).getParentFile() : getInstallFile().getParentFile());
+                } catch (IOException ex) {
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar() + " &8[NOT ENOUGH DISK SPACE]");
+                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating premium resource.");
+                    complete(false, ex, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
+
+                //Keep the installed jar so the update can be rolled back.
+                if (AutoUpdaterAPI.getInstance().getArtifactCache() != null) {
+                    try {
+                        AutoUpdaterAPI.getInstance().getArtifactCache().archive(resourceId, currentVersion, UtilPlugin.getJarFile(plugin));
+                        AutoUpdaterAPI.getInstance().getInstallHistory().pushInitial(plugin.getName(), resourceId, currentVersion);
+                    } catch (Exception ex) {
+                        AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while archiving " + plugin.getName() + ".");
+                    }
                 }
+
+                if (spigotUser == null) {
+                    authenticate(true);
+                    UtilUI.sendActionBar(initiator, locale.getUpdatingNoVar() + " &8[AUTHENTICATING SPIGOT ACCOUNT]");
+                    return;
+                }
+
+                try {
+                    for (Resource resource : AutoUpdaterAPI.getInstance().getApi().getResourceManager().getPurchasedResources(spigotUser)) {
+                        if (resource.getResourceId() == resourceId) {
+                            PremiumUpdater.this.resource = resource;
+                        }
+                    }
+                } catch (ConnectionFailedException ex) {
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
+                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while connecting to spigot. (#1)");
+                    complete(false, ex, null);
+                    delete();
+                    return;
+                }
+
+                if (resource == null) {
+                    AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + "!", "That plugin has not been bought by the current user!");
+                    UtilUI.sendActionBar(initiator, "&c&lUPDATE FAILED &8[YOU HAVE NOT BOUGHT THAT PLUGIN]");
+                    complete(false, null, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
+
+                download(newVersion);
             }
-        } catch (ConnectionFailedException ex) {
-            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
-            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while connecting to spigot. (#1)");
-            endTask.run(false, ex, null, pluginName);
-            delete();
-        }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
 
-        if (resource == null) {
-            AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + "!", "That plugin has not been bought by the current user!");
-            UtilUI.sendActionBarSync(initiator, "&c&lUPDATE FAILED &8[YOU HAVE NOT BOUGHT THAT PLUGIN]");
-            endTask.run(false, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-            delete();
-            return;
-        }
+        return result;
+    }
 
+    private void download(String newVersion) {
         new BukkitRunnable() {
             @Override
             public void run() {
+                File target = staged ? Staging.getFile(locale.getFileName()) : getInstallFile();
+                ArtifactCache artifactCache = AutoUpdaterAPI.getInstance().getArtifactCache();
+
+                if (artifactCache != null && artifactCache.install(resourceId, newVersion, target)) {
+                    try {
+                        Staging.verify(target);
+                        install(newVersion, target);
+                        return;
+                    } catch (IOException ex) {
+                        //Never offer the broken entry again, the version is downloaded instead.
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Cached jar of " + plugin.getName() + " v" + newVersion + " is not a valid plugin, downloading it again.");
+                        artifactCache.forget(resourceId, newVersion);
+                    }
+                }
+
+                //A patch against the installed jar is usually a fraction of the full download.
+                String patchedSha256 = JarPatch.patch(plugin, resourceId, currentVersion, newVersion, target);
+                if (patchedSha256 != null) {
+                    try {
+                        verifyAndStore(newVersion, target, patchedSha256);
+                        install(newVersion, target);
+                        return;
+                    } catch (IOException ex) {
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Patched jar of " + plugin.getName() + " v" + newVersion + " is not a valid plugin, downloading it instead.");
+                    }
+                }
+
                 try {
                     UtilUI.sendActionBar(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[ATTEMPTING DOWNLOAD]");
 
@@ -200,7 +326,21 @@ public class PremiumUpdater {
 
                     webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
 
-                    Page page = webClient.getPage(AutoUpdaterAPI.getInstance().getApi().getResourceManager().getResourceById(resourceId, spigotUser).getDownloadURL());
+                    String downloadUrl = AutoUpdaterAPI.getInstance().getApi().getResourceManager().getResourceById(resourceId, spigotUser).getDownloadURL();
+                    PartialDownload partial = new PartialDownload(target, downloadUrl);
+                    long offset = partial.getResumeOffset();
+
+                    //The web client is shared, so the range headers go on this request only and never leak into another update's requests.
+                    WebRequest request = new WebRequest(new URL(downloadUrl));
+
+                    if (offset > 0) {
+                        request.setAdditionalHeader("Range", "bytes=" + offset + "-");
+
+                        if (partial.getIfRange() != null)
+                            request.setAdditionalHeader("If-Range", partial.getIfRange());
+                    }
+
+                    Page page = webClient.getPage(request);
 
                     webClient.waitForBackgroundJavaScript(10_000);
 
@@ -225,10 +365,11 @@ public class PremiumUpdater {
 
                     String contentLength = response.getResponseHeaderValue("Content-Length");
 
-                    int completeFileSize = 0;
+                    //Missing for chunked responses, the Spiget estimate is used for the progress bar then.
+                    long completeFileSize = -1;
 
                     if (contentLength != null)
-                        completeFileSize = Integer.parseInt(contentLength);
+                        completeFileSize = Long.parseLong(contentLength.trim());
 
                     if (AutoUpdaterAPI.getInstance().isDebug()) {
                         AutoUpdaterAPI.getInstance().getLogger().info("");
@@ -279,101 +420,136 @@ public class PremiumUpdater {
                         response.getResponseHeaders().forEach(nvpair -> AutoUpdaterAPI.getInstance().getLogger().info(nvpair.getName() + " | " + nvpair.getValue()));
                     }
 
-                    int grabSize = 2048;
+                    //Only continue the part file if the server actually sent the requested range, otherwise start over.
+                    long resumeAt = offset > 0 && response.getStatusCode() == 206 ? offset : 0;
+                    long length = completeFileSize < 0 ? -1 : resumeAt + completeFileSize;
 
-                    BufferedInputStream in = new java.io.BufferedInputStream(response.getContentAsStream());
-                    java.io.FileOutputStream fos = new java.io.FileOutputStream(new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar"));
-                    java.io.BufferedOutputStream bout = new BufferedOutputStream(fos, grabSize);
+                    if (resumeAt > 0 && AutoUpdaterAPI.getInstance().isDebug())
+                        AutoUpdaterAPI.getInstance().getLogger().info("RESUMING AT " + resumeAt + "/" + length);
 
-                    byte[] data = new byte[grabSize];
-                    long downloadedFileSize = 0;
-                    int grabbed;
-                    while ((grabbed = in.read(data, 0, grabSize)) >= 0) {
+                    DownloadProgress progress = new DownloadProgress();
+                    progress.setTotal(expectedSize);
+                    progress.setLimiter(bandwidthLimiter);
+                    ProgressPublisher progressBar = showProgress(progress, newVersion);
 
-                        //if (AutoUpdaterAPI.getInstance().isDebug())
-                        //AutoUpdaterAPI.getInstance().getLogger().info(System.currentTimeMillis()+" - GRABBED "+grabbed+"/"+grabSize+" ("+String.format("%.2f", (((double) grabbed) / ((double) grabSize)) * 100)+"%)");
-
-                        downloadedFileSize += grabbed;
-
-                        //Don't send action bar for every byte of data we're not trying to crash any clients (or servers) here.
-                        if (downloadedFileSize % (grabSize * 10) == 0 && completeFileSize > 0) {
-                            final int currentProgress = (int) ((((double) downloadedFileSize) / ((double) completeFileSize)) * 15);
+                    long downloadedFileSize;
+                    try (InputStream in = response.getContentAsStream()) {
+                        downloadedFileSize = DownloadEngine.download(in, partial, resumeAt, length, response.getResponseHeaderValue("ETag"), response.getResponseHeaderValue("Last-Modified"), progress);
+                    } finally {
+                        progressBar.stop();
+                    }
 
-                            final String currentPercent = String.format("%.2f", (((double) downloadedFileSize) / ((double) completeFileSize)) * 100);
+                    if (AutoUpdaterAPI.getInstance().isDebug()) {
+                        AutoUpdaterAPI.getInstance().getLogger().info("FINISHED WITH " + downloadedFileSize + "/" + length + " (" + String.format("%.2f", (((double) downloadedFileSize) / ((double) length)) * 100) + "%)");
+                        AutoUpdaterAPI.getInstance().getLogger().info("SHA-256 = " + partial.getSha256());
+                        AutoUpdaterAPI.getInstance().getLogger().info("============== END PREMIUM PLUGIN DEBUG =======");
+                    }
 
-                            String bar = "&a:::::::::::::::";
+                    verifyAndStore(newVersion, target, partial.getSha256());
+                    install(newVersion, target);
+                } catch (Exception ex) {
+                    if (AutoUpdaterAPI.getInstance().isDebug())
+                        AutoUpdaterAPI.getInstance().getLogger().info("============== END PREMIUM PLUGIN DEBUG =======");
 
-                            bar = bar.substring(0, currentProgress + 2) + "&c" + bar.substring(currentProgress + 2);
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
+                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating premium resource.");
+                    complete(false, ex, getPlugin(pluginName));
+                    delete();
+                }
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+    }
 
-                            UtilUI.sendActionBar(initiator, locale.getUpdatingDownload().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%download_bar%", bar).replace("%download_percent%", currentPercent + "%") + " &8[DOWNLOADING RESOURCE]");
-                        }
+    /**
+     * Checks a patched or downloaded jar is a plugin before it is added to the artifact cache, so an error page or a truncated
+     * body is never cached. A broken jar is deleted.
+     */
+    private void verifyAndStore(String newVersion, File jar, String sha256) throws IOException {
+        Staging.verify(jar);
 
-                        bout.write(data, 0, grabbed);
-                    }
+        if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+            AutoUpdaterAPI.getInstance().getArtifactCache().store(resourceId, newVersion, jar, sha256);
+    }
 
-                    bout.close();
-                    in.close();
-                    fos.close();
+    /**
+     * Replaces the old plugin with the downloaded and verified jar on the main thread.
+     */
+    private void install(String newVersion, File downloaded) {
+        if (batch != null) {
+            batchDone = true;
+            batch.arrive(plugin, downloaded, getInstallFile()).thenAccept(swapResult -> {
+                if (pluginName == null && swapResult.getPlugin() != null)
+                    pluginName = swapResult.getPlugin().getName();
+
+                if (swapResult.isSuccessful()) {
+                    if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+                        AutoUpdaterAPI.getInstance().getInstallHistory().push(plugin.getName(), resourceId, newVersion);
+
+                    double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
+                    UtilUI.sendActionBar(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
+                } else
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
 
-                    if (AutoUpdaterAPI.getInstance().isDebug()) {
-                        AutoUpdaterAPI.getInstance().getLogger().info("FINISHED WITH " + downloadedFileSize + "/" + completeFileSize + " (" + String.format("%.2f", (((double) downloadedFileSize) / ((double) completeFileSize)) * 100) + "%)");
-                        AutoUpdaterAPI.getInstance().getLogger().info("============== END PREMIUM PLUGIN DEBUG =======");
-                    }
+                complete(swapResult.isSuccessful(), swapResult.getException(), swapResult.getPlugin());
+                delete();
+            });
+            return;
+        }
 
-                    new BukkitRunnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                if (deleteOld) {
-                                    File pluginFile = new File(plugin.getClass().getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
+        LifecycleScheduler scheduler = AutoUpdaterAPI.getInstance().getLifecycleScheduler();
+        String stepName = plugin.getName();
 
-                                    UtilPlugin.unload(plugin);
+        //Each step is run on the main thread by the lifecycle scheduler, which spreads them over ticks when they are expensive.
+        scheduler.submit(LifecycleScheduler.Phase.UNLOAD, stepName, () -> {
+            if (deleteOld) {
+                File pluginFile = UtilPlugin.getJarFile(plugin);
+                boolean replacedInPlace = pluginFile.getCanonicalFile().equals(getInstallFile().getCanonicalFile());
+                ClassLoader loader = UtilPlugin.detach(plugin);
 
-                                    if (!pluginFile.delete())
-                                        AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + ".", "Could not delete old plugin jar.");
-                                }
+                if (staged)
+                    Staging.promote(downloaded, getInstallFile(), loader);
 
-                                UtilUI.sendActionBar(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[INITIALIZING]");
+                //Closing the old class loader and deleting its jar is file I/O, so it's left to an async task.
+                UtilPlugin.releaseAsync(loader, replacedInPlace ? null : pluginFile);
+            } else if (staged)
+                Staging.promote(downloaded, getInstallFile());
 
-                                List<Plugin> beforePlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
+            UtilUI.sendActionBar(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[INITIALIZING]");
+            return null;
+        }).thenCompose(ignored -> scheduler.submit(LifecycleScheduler.Phase.LOAD, stepName, () -> {
+            List<Plugin> beforePlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
 
-                                Bukkit.getPluginManager().loadPlugin(new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar"));
+            Bukkit.getPluginManager().loadPlugin(getInstallFile());
 
-                                if (pluginName == null) {
-                                    List<Plugin> afterPlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
-                                    afterPlugins.removeAll(beforePlugins);
-                                    pluginName = afterPlugins.get(0).getName();
-                                }
+            if (pluginName == null) {
+                List<Plugin> afterPlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
+                afterPlugins.removeAll(beforePlugins);
+                pluginName = afterPlugins.get(0).getName();
+            }
 
-                                Bukkit.getPluginManager().enablePlugin(Bukkit.getPluginManager().getPlugin(pluginName));
+            return null;
+        })).thenCompose(ignored -> scheduler.submit(LifecycleScheduler.Phase.ENABLE, stepName, () -> {
+            Bukkit.getPluginManager().enablePlugin(Bukkit.getPluginManager().getPlugin(pluginName));
+            return null;
+        })).thenCompose(ignored -> scheduler.submit(LifecycleScheduler.Phase.CALLBACK, stepName, () -> {
+            if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+                AutoUpdaterAPI.getInstance().getInstallHistory().push(plugin.getName(), resourceId, newVersion);
 
-                                double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
-                                UtilUI.sendActionBar(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
+            double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
+            UtilUI.sendActionBar(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
 
-                                endTask.run(true, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                                delete();
-                            } catch (Exception ex) {
-                                UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
-                                AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating premium resource.");
-                                if (pluginName != null) {
-                                    endTask.run(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                                }
-                                delete();
-                            }
-                        }
-                    }.runTask(AutoUpdaterAPI.getInstance());
-                } catch (Exception ex) {
-                    if (AutoUpdaterAPI.getInstance().isDebug())
-                        AutoUpdaterAPI.getInstance().getLogger().info("============== END PREMIUM PLUGIN DEBUG =======");
+            complete(true, null, getPlugin(pluginName));
+            delete();
+            return null;
+        })).exceptionally(throwable -> {
+            Exception ex = LifecycleScheduler.unwrap(throwable);
 
-                    UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
-                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating premium resource.");
-                    if (pluginName != null)
-                        endTask.run(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                    delete();
-                }
-            }
-        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+            UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating premium resource.");
+            complete(false, ex, getPlugin(pluginName));
+            delete();
+            return null;
+        });
     }
 
     public void authenticate(boolean recall) {
@@ -413,7 +589,7 @@ public class PremiumUpdater {
                                 if (recall)
                                     update();
                             } catch (Exception ex) {
-                                AutoUpdaterAPI.getInstance().printError(ex);
+                                fail(ex, "Error occurred while updating premium resource.");
                             }
                         }
                     }.runTaskLater(AutoUpdaterAPI.getInstance(), 40L);
@@ -447,7 +623,7 @@ public class PremiumUpdater {
                                         if (recall)
                                             update();
                                     } catch (Exception ex) {
-                                        AutoUpdaterAPI.getInstance().printError(ex);
+                                        fail(ex, "Error occurred while updating premium resource.");
                                     }
                                 }
                             }.runTask(AutoUpdaterAPI.getInstance());
@@ -459,7 +635,7 @@ public class PremiumUpdater {
                             } else if (otherException instanceof ConnectionFailedException) {
                                 UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
                                 AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while connecting to spigot. (#6)");
-                                endTask.run(false, otherException, null, pluginName);
+                                complete(false, otherException, getPlugin(pluginName));
                                 delete();
                             } else if (otherException instanceof TwoFactorAuthenticationException) {
                                 if (loginAttempts < 4) {
@@ -472,11 +648,11 @@ public class PremiumUpdater {
                                         }
                                     }.runTaskLater(AutoUpdaterAPI.getInstance(), 100L);
                                 } else {
+                                    fail(otherException, "Error occurred while authenticating Spigot user, giving up after " + loginAttempts + " attempts.");
                                     loginAttempts = 1;
-                                    AutoUpdaterAPI.getInstance().printError(otherException);
                                 }
                             } else {
-                                AutoUpdaterAPI.getInstance().printError(otherException);
+                                fail(otherException, "Error occurred while authenticating Spigot user.");
                             }
                         }
                     } else if (ex instanceof InvalidCredentialsException) {
@@ -486,17 +662,35 @@ public class PremiumUpdater {
                     } else if (ex instanceof ConnectionFailedException) {
                         UtilUI.sendActionBar(initiator, locale.getUpdatingNoVar() + " &8[RE-ATTEMPTING AUTHENTICATION]");
                         AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while connecting to spigot. (#2)");
-                        endTask.run(false, ex, null, pluginName);
+                        complete(false, ex, getPlugin(pluginName));
                         delete();
                     } else {
-                        AutoUpdaterAPI.getInstance().printError(ex);
+                        fail(ex, "Error occurred while authenticating Spigot user.");
                     }
                 }
             }
         }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
     }
 
+    /**
+     * Ends the update after authenticating failed, so the future and any batch waiting on it don't hang.
+     */
+    private void fail(Exception ex, String message) {
+        UtilUI.sendActionBar(initiator, locale.getUpdateFailedNoVar());
+        AutoUpdaterAPI.getInstance().printError(ex, message);
+        complete(false, ex, getPlugin(pluginName));
+        delete();
+    }
+
     private void runGuis(boolean recall) {
+        //Without a player there is nobody to ask for the credentials.
+        if (initiator == null) {
+            AutoUpdaterAPI.getInstance().printPluginError("Error occurred while authenticating.", "No Spigot credentials are stored and there is no player to ask for them.");
+            complete(false, new IllegalStateException("No Spigot credentials are stored."), getPlugin(pluginName));
+            delete();
+            return;
+        }
+
         new BukkitRunnable() {
             @Override
             public void run() {
@@ -549,7 +743,7 @@ public class PremiumUpdater {
                                         } catch (Exception exception) {
                                             UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
                                             AutoUpdaterAPI.getInstance().printError(exception, "Error occurred while authenticating Spigot user.");
-                                            endTask.run(false, exception, null, pluginName);
+                                            complete(false, exception, null);
                                             delete();
                                             return "Authentication failed";
                                         }
@@ -557,12 +751,12 @@ public class PremiumUpdater {
                                 } catch (ConnectionFailedException ex) {
                                     UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
                                     AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while connecting to Spigot. (#3)");
-                                    endTask.run(false, ex, null, pluginName);
+                                    complete(false, ex, null);
                                     delete();
                                     return "Could not connect to Spigot";
                                 } catch (InvalidCredentialsException ex) {
                                     UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
-                                    endTask.run(false, ex, null, pluginName);
+                                    complete(false, ex, null);
                                     delete();
                                     return "Invalid credentials";
                                 }
@@ -574,19 +768,19 @@ public class PremiumUpdater {
 
                             UtilUI.sendActionBarSync(initiator, "&cEmails are not supported!");
 
-                            endTask.run(false, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
+                            complete(false, null, getPlugin(pluginName));
                             delete();
                             return "Emails are not supported!";
                         } else {
                             UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
-                            endTask.run(false, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
+                            complete(false, null, getPlugin(pluginName));
                             delete();
                             return "Invalid username!";
                         }
                     } catch (Exception ex) {
                         AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while authenticating Spigot username.");
                         UtilUI.sendActionBarSync(initiator, locale.getUpdateFailedNoVar());
-                        endTask.run(false, ex, null, pluginName);
+                        complete(false, ex, null);
                         delete();
                     }
 
@@ -600,6 +794,79 @@ public class PremiumUpdater {
      * Utilities
      */
 
+    /**
+     * @return The jar the new version is loaded from.
+     */
+    private File getInstallFile() {
+        return new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar");
+    }
+
+    /**
+     * Publishes the download progress to the initiator's action bar and every registered progress listener.
+     */
+    private ProgressPublisher showProgress(DownloadProgress progress, String newVersion) {
+        ProgressPublisher publisher = new ProgressPublisher(progress);
+
+        publisher.subscribe(event -> {
+            double fraction = event.getFraction();
+
+            if (fraction < 0)
+                return;
+
+            final int currentProgress = (int) (fraction * 15);
+
+            final String currentPercent = String.format("%.2f", fraction * 100);
+
+            String bar = "&a:::::::::::::::";
+
+            bar = bar.substring(0, currentProgress + 2) + "&c" + bar.substring(currentProgress + 2);
+
+            UtilUI.sendActionBarSync(initiator, locale.getUpdatingDownload().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%download_bar%", bar).replace("%download_percent%", currentPercent + "%").replace("%download_speed%", event.formatSpeed()).replace("%download_eta%", event.formatEta()) + " &8[DOWNLOADING RESOURCE]");
+        });
+
+        progressListeners.forEach(publisher::subscribe);
+
+        return publisher.start();
+    }
+
+    private void complete(boolean successful, Exception ex, Plugin updated) {
+        if (batch != null && !batchDone) {
+            batchDone = true;
+            batch.leave();
+        }
+
+        result.complete(new UpdateResult(successful, ex, updated, pluginName));
+    }
+
+    /**
+     * The end task has always been run on the main thread and callers rely on it, so results completed off the main thread are handed over to it.
+     */
+    private void dispatchEndTask(UpdateResult updateResult) {
+        if (Bukkit.isPrimaryThread()) {
+            runEndTask(updateResult);
+            return;
+        }
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                runEndTask(updateResult);
+            }
+        }.runTask(AutoUpdaterAPI.getInstance());
+    }
+
+    private void runEndTask(UpdateResult updateResult) {
+        try {
+            endTask.run(updateResult.isSuccessful(), updateResult.getException(), updateResult.getPlugin(), updateResult.getPluginName());
+        } catch (Exception ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while running the end task for " + pluginName + ".");
+        }
+    }
+
+    private Plugin getPlugin(String name) {
+        return name == null ? null : Bukkit.getPluginManager().getPlugin(name);
+    }
+
     private void delete() {
         new BukkitRunnable() {
             @Override
@@ -0,0 +1,46 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A sample of a running download published by a {@link ProgressPublisher}.
+ */
+@Getter @AllArgsConstructor public class ProgressEvent {
+    private final long downloaded;
+    //Expected size in bytes, -1 if unknown.
+    private final long total;
+    //Smoothed download speed in bytes per second.
+    private final double bytesPerSecond;
+    //Estimated time until the download finishes, -1 if unknown.
+    private final long etaMillis;
+
+    /**
+     * @return The completed fraction between 0 and 1, or -1 if the total size is unknown.
+     */
+    public double getFraction() {
+        return total > 0 ? Math.min(1D, (double) downloaded / total) : -1;
+    }
+
+    /**
+     * @return The speed as a short human readable string, e.g. "1.25 MB/s".
+     */
+    public String formatSpeed() {
+        if (bytesPerSecond >= 1024 * 1024)
+            return String.format("%.2f MB/s", bytesPerSecond / (1024 * 1024));
+
+        return String.format("%.0f KB/s", bytesPerSecond / 1024);
+    }
+
+    /**
+     * @return The ETA as a short human readable string, e.g. "1m 05s", or "?" if it is unknown.
+     */
+    public String formatEta() {
+        if (etaMillis < 0)
+            return "?";
+
+        long seconds = (etaMillis + 999) / 1000;
+
+        return seconds >= 60 ? String.format("%dm %02ds", seconds / 60, seconds % 60) : seconds + "s";
+    }
+}
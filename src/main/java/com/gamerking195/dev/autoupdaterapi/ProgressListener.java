@@ -0,0 +1,13 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+/**
+ * Receives the progress of a download, see {@link ProgressPublisher}.
+ */
+public interface ProgressListener {
+    /**
+     * Called on the main thread at most once per publishing period, and only if the download advanced since the last call.
+     *
+     * @param event The progress of the download.
+     */
+    void onProgress(ProgressEvent event);
+}
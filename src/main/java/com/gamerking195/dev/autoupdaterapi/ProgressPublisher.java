@@ -0,0 +1,97 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Samples the byte counter of a download at a fixed rate on the main thread and publishes one {@link ProgressEvent}
+ * per sample to its listeners, so the download loop itself never reports anything.
+ *
+ * Speed is a moving average of the per-sample speed, which keeps the ETA from jumping around with every read.
+ */
+public class ProgressPublisher {
+    //Weight of the newest sample in the moving average.
+    private static final double ALPHA = 0.3;
+
+    //Ticks between two samples, at least 1.
+    @Getter @Setter private static long periodTicks = 10;
+
+    private final DownloadProgress progress;
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+    private BukkitTask task;
+
+    //Only touched by the sampling task.
+    private long lastBytes;
+    private long lastNanos;
+    private long lastPublished = -1;
+    private double bytesPerSecond = -1;
+
+    public ProgressPublisher(DownloadProgress progress) {
+        this.progress = progress;
+    }
+
+    public ProgressPublisher subscribe(ProgressListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Starts sampling, must be stopped with {@link #stop()} once the download ended.
+     */
+    public ProgressPublisher start() {
+        lastBytes = progress.getDownloaded();
+        lastNanos = System.nanoTime();
+
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }.runTaskTimer(AutoUpdaterAPI.getInstance(), 0L, Math.max(1L, periodTicks));
+
+        return this;
+    }
+
+    public void stop() {
+        if (task != null)
+            task.cancel();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long downloaded = progress.getDownloaded();
+
+        if (now > lastNanos) {
+            double current = (downloaded - lastBytes) * 1e9 / (now - lastNanos);
+            bytesPerSecond = bytesPerSecond < 0 ? current : ALPHA * current + (1 - ALPHA) * bytesPerSecond;
+        }
+
+        lastBytes = downloaded;
+        lastNanos = now;
+
+        //Nothing new to tell.
+        if (downloaded == lastPublished)
+            return;
+
+        lastPublished = downloaded;
+
+        long total = progress.getTotal();
+        long etaMillis = total > 0 && bytesPerSecond > 0 ? (long) (Math.max(0, total - downloaded) / bytesPerSecond * 1000) : -1;
+
+        ProgressEvent event = new ProgressEvent(downloaded, total, Math.max(0, bytesPerSecond), etaMillis);
+
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.onProgress(event);
+            } catch (Exception ex) {
+                AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while publishing download progress.");
+            }
+        }
+    }
+}
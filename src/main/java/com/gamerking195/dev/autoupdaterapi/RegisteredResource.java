@@ -0,0 +1,35 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * A resource registered with the {@link UpdateScheduler} along with its check state.
+ *
+ * Only the plugin's name is kept, an update replaces the plugin instance so the loaded one is looked up every time it's needed.
+ */
+@Getter public class RegisteredResource {
+    private final String pluginName;
+    private final int resourceId;
+    private final boolean premium;
+
+    //When the next check is due (epoch millis).
+    volatile long nextCheck;
+    //Checks that failed in a row, used for the backoff.
+    volatile int failures;
+    volatile boolean checking;
+
+    RegisteredResource(Plugin plugin, int resourceId, boolean premium) {
+        this.pluginName = plugin.getName();
+        this.resourceId = resourceId;
+        this.premium = premium;
+    }
+
+    /**
+     * @return The currently loaded instance of the plugin, null while it is being swapped or if it was unloaded.
+     */
+    public Plugin getPlugin() {
+        return Bukkit.getPluginManager().getPlugin(pluginName);
+    }
+}
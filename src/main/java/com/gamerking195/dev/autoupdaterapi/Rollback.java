@@ -0,0 +1,85 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Swaps a plugin back to the version it had before its last update, using the jar kept in the {@link ArtifactCache},
+ * so rolling back never needs the network.
+ */
+public class Rollback {
+    /**
+     * Rolls a plugin back to its previous version, see {@link AutoUpdaterAPI#rollback(Plugin)}.
+     */
+    static CompletableFuture<UpdateResult> rollback(Plugin plugin) {
+        CompletableFuture<UpdateResult> result = new CompletableFuture<>();
+        String pluginName = plugin.getName();
+        ArtifactCache artifactCache = AutoUpdaterAPI.getInstance().getArtifactCache();
+
+        if (artifactCache == null) {
+            result.complete(new UpdateResult(false, new IllegalStateException("Rolling back requires the artifact cache to be enabled."), plugin, pluginName));
+            return result;
+        }
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                InstallHistory.Entry previous = AutoUpdaterAPI.getInstance().getInstallHistory().getPrevious(pluginName);
+
+                if (previous == null) {
+                    result.complete(new UpdateResult(false, new IllegalStateException("No previous version of " + pluginName + " is known."), plugin, pluginName));
+                    return;
+                }
+
+                File staged = Staging.getFile(pluginName + "-rollback");
+
+                try {
+                    if (!artifactCache.install(previous.getResourceId(), previous.getVersion(), staged))
+                        throw new IllegalStateException("Version " + previous.getVersion() + " of " + pluginName + " is no longer in the artifact cache.");
+
+                    try {
+                        Staging.verify(staged);
+                    } catch (IOException ex) {
+                        artifactCache.forget(previous.getResourceId(), previous.getVersion());
+                        throw ex;
+                    }
+                } catch (Exception ex) {
+                    result.complete(new UpdateResult(false, ex, plugin, pluginName));
+                    return;
+                }
+
+                new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            File current = UtilPlugin.getJarFile(plugin);
+                            ClassLoader loader = UtilPlugin.detach(plugin);
+
+                            Staging.promote(staged, current, loader);
+                            UtilPlugin.releaseAsync(loader, null);
+
+                            Plugin restored = Bukkit.getPluginManager().loadPlugin(current);
+                            Bukkit.getPluginManager().enablePlugin(restored);
+
+                            AutoUpdaterAPI.getInstance().getInstallHistory().rollback(pluginName);
+
+                            AutoUpdaterAPI.getInstance().getLogger().info("Rolled " + pluginName + " back to " + previous.getVersion() + ".");
+                            result.complete(new UpdateResult(true, null, restored, pluginName));
+                        } catch (Exception ex) {
+                            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while rolling back " + pluginName + ".");
+                            result.complete(new UpdateResult(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName));
+                        }
+                    }
+                }.runTask(AutoUpdaterAPI.getInstance());
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+
+        return result;
+    }
+}
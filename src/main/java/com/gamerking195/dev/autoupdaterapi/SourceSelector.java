@@ -0,0 +1,97 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the moving average latency, throughput and health of every host AutoUpdaterAPI talks to,
+ * and orders the available sources so requests go to the fastest healthy one first.
+ */
+public class SourceSelector {
+    //Weight of the newest sample in the moving averages.
+    private static final double ALPHA = 0.3;
+    //Failures in a row after which a host is considered unhealthy.
+    private static final int MAX_FAILURES = 3;
+    //How long an unhealthy host is only used as a last resort.
+    private static final long UNHEALTHY_MILLIS = 5 * 60 * 1000;
+
+    private final Map<String, HostStats> stats = new ConcurrentHashMap<>();
+
+    public void recordSuccess(String host, long latencyMillis) {
+        HostStats hostStats = getStats(host);
+
+        synchronized (hostStats) {
+            hostStats.latency = hostStats.latency < 0 ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * hostStats.latency;
+            hostStats.failures = 0;
+            hostStats.unhealthyUntil = 0;
+        }
+    }
+
+    public void recordThroughput(String host, long bytes, long millis) {
+        if (bytes <= 0 || millis <= 0)
+            return;
+
+        HostStats hostStats = getStats(host);
+        double bytesPerSecond = bytes * 1000D / millis;
+
+        synchronized (hostStats) {
+            hostStats.throughput = hostStats.throughput < 0 ? bytesPerSecond : ALPHA * bytesPerSecond + (1 - ALPHA) * hostStats.throughput;
+        }
+    }
+
+    public void recordFailure(String host) {
+        HostStats hostStats = getStats(host);
+
+        synchronized (hostStats) {
+            if (++hostStats.failures >= MAX_FAILURES)
+                hostStats.unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_MILLIS;
+        }
+    }
+
+    /**
+     * @return The moving average latency of the host in milliseconds, or -1 if it is unknown.
+     */
+    public double getLatency(String host) {
+        return getStats(host).latency;
+    }
+
+    /**
+     * @return The moving average download throughput of the host in bytes per second, or -1 if it is unknown.
+     */
+    public double getThroughput(String host) {
+        return getStats(host).throughput;
+    }
+
+    public boolean isHealthy(String host) {
+        return getStats(host).unhealthyUntil < System.currentTimeMillis();
+    }
+
+    /**
+     * Orders the version sources healthy first, then by moving average latency, sources without samples go first so they get measured.
+     *
+     * @return Every version source in the order they should be tried.
+     */
+    public List<VersionSource> rankVersionSources() {
+        List<VersionSource> sources = new ArrayList<>(Arrays.asList(VersionSource.values()));
+
+        sources.sort(Comparator.<VersionSource>comparingInt(source -> isHealthy(source.getHost()) ? 0 : 1)
+                .thenComparingDouble(source -> getLatency(source.getHost())));
+
+        return sources;
+    }
+
+    private HostStats getStats(String host) {
+        return stats.computeIfAbsent(host, ignored -> new HostStats());
+    }
+
+    private static class HostStats {
+        private volatile double latency = -1;
+        private volatile double throughput = -1;
+        private volatile int failures;
+        private volatile long unhealthyUntil;
+    }
+}
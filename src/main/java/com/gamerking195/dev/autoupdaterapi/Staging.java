@@ -0,0 +1,74 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarFile;
+
+/**
+ * Staging area for staged updates, new jars are downloaded and verified here while the old plugin keeps running
+ * and are only moved into the plugins folder in the same main thread step that swaps the plugins.
+ */
+public class Staging {
+    /**
+     * @param fileName The file name of the new jar without extension.
+     * @return The file the new jar is downloaded to.
+     */
+    public static File getFile(String fileName) {
+        return new File(new File(AutoUpdaterAPI.getInstance().getDataFolder(), "staging"), fileName + ".jar");
+    }
+
+    /**
+     * Checks a staged jar can be opened and contains a plugin.yml, a broken jar is deleted.
+     *
+     * @param jar The staged jar.
+     * @throws IOException If the jar is not a valid plugin.
+     */
+    public static void verify(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            if (jarFile.getEntry("plugin.yml") == null)
+                throw new IOException(jar.getName() + " does not contain a plugin.yml.");
+        } catch (IOException ex) {
+            jar.delete();
+            throw ex;
+        }
+    }
+
+    /**
+     * Moves a staged jar into the plugins folder, atomically if the file system allows it.
+     *
+     * @param staged The staged jar.
+     * @param target The jar in the plugins folder, replaced if it exists.
+     * @throws IOException If the jar could not be moved.
+     */
+    public static void promote(File staged, File target) throws IOException {
+        try {
+            Files.move(staged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(staged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Promotes a staged jar over the jar of a plugin that was just detached with {@link UtilPlugin#detach(Plugin)}.
+     * Windows won't replace a jar that is still open, in that case the old class loader is released right away and the move retried.
+     *
+     * @param staged The verified staged jar.
+     * @param target Where the plugin should be loaded from.
+     * @param previous The class loader of the detached plugin.
+     * @throws IOException If the jar could not be moved.
+     */
+    public static void promote(File staged, File target, ClassLoader previous) throws IOException {
+        try {
+            promote(staged, target);
+        } catch (IOException ex) {
+            UtilPlugin.release(previous, null);
+            promote(staged, target);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import lombok.Setter;
     private String pluginName = "plugin";
     private String updating = "&f&lUPDATING &1&l%plugin% &b&lV%old_version% &a&l» &b&l%new_version%";
     private String updatingNoVar = "&f&lUPDATING PLUGIN...";
+    //Also supports %download_speed% and %download_eta%.
     private String updatingDownload = "&f&lUPDATING &1&l%plugin% &b&lV%old_version% &a&l» &b&lV%new_version% &8| %download_bar% &8| &a%download_percent%";
     private String updateComplete = "&f&lUPDATED &1&l%plugin% &f&lTO &b&lV%new_version% &7&o(%elapsed_time%s)";
     private String updateFailed = "&f&lUPDATING &1&l%plugin% &b&lV%old_version% &a&l» &b&l%new_version% &8[&c&lUPDATE FAILED &7&o(Check Console)]";
@@ -0,0 +1,79 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import net.md_5.bungee.api.ChatColor;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Tells operators about available updates when they join.
+ *
+ * The message is rebuilt from the cached check results whenever a check completes, so joining only reads
+ * a prepared string and never touches the network.
+ */
+public class UpdateNotifier implements Listener {
+    public static final String PERMISSION = "autoupdaterapi.notify";
+
+    //The prepared message, null when there are no updates to announce.
+    private volatile String message;
+
+    /**
+     * Rebuilds the message from the latest cached results of every resource registered with the {@link UpdateScheduler}.
+     */
+    public void refresh() {
+        UpdatePolicy policy = AutoUpdaterAPI.getInstance().getUpdatePolicy();
+        VersionCache cache = AutoUpdaterAPI.getInstance().getVersionCache();
+
+        StringBuilder builder = new StringBuilder();
+        int updates = 0;
+
+        for (RegisteredResource resource : AutoUpdaterAPI.getInstance().getUpdateScheduler().getResources()) {
+            VersionCache.Entry entry = cache.get(resource.getResourceId());
+
+            if (entry == null || entry.getVersion() == null)
+                continue;
+
+            //The loaded plugin, so a version installed by an update since the check isn't announced again.
+            Plugin plugin = resource.getPlugin();
+
+            if (plugin == null)
+                continue;
+
+            String installed = plugin.getDescription().getVersion();
+
+            if (!policy.shouldUpdate(Version.parse(installed), Version.parse(entry.getVersion())))
+                continue;
+
+            builder.append("\n&8- &b").append(plugin.getName()).append(" &7V").append(installed).append(" &a&l» &bV").append(entry.getVersion());
+            updates++;
+        }
+
+        message = updates == 0 ? null : ChatColor.translateAlternateColorCodes('&', "&f&lAUTOUPDATERAPI &8| &a" + updates + (updates == 1 ? " update" : " updates") + " available:" + builder);
+    }
+
+    /**
+     * @return The message operators currently receive on join, null if there are no updates available.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * An updated plugin is enabled again, so the message is rebuilt against the version now installed.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPluginEnable(PluginEnableEvent event) {
+        refresh();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        String current = message;
+
+        if (current != null && event.getPlayer().hasPermission(PERMISSION))
+            event.getPlayer().sendMessage(current);
+    }
+}
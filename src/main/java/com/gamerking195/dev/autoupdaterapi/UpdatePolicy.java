@@ -0,0 +1,29 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+/**
+ * Decides when the latest version of a resource counts as an update for the installed version.
+ */
+public enum UpdatePolicy {
+    //Update when the latest version is newer than the installed one, including pre-releases.
+    NEWER,
+    //Update when the latest version is newer than the installed one and is not a pre-release.
+    NEWER_RELEASE,
+    //Update whenever the versions differ, even if the latest version is older.
+    DIFFERENT;
+
+    /**
+     * @param current The installed version.
+     * @param latest  The latest version available.
+     * @return True if the latest version should be installed.
+     */
+    public boolean shouldUpdate(Version current, Version latest) {
+        //Versions that can't be ordered fall back to a plain comparison.
+        if (this == DIFFERENT || !current.isNumeric() || !latest.isNumeric())
+            return !current.getOriginal().trim().equalsIgnoreCase(latest.getOriginal().trim());
+
+        if (this == NEWER_RELEASE && latest.isPreRelease())
+            return false;
+
+        return latest.compareTo(current) > 0;
+    }
+}
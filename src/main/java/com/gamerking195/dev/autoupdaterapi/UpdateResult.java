@@ -0,0 +1,19 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Outcome of an update, mirrors the arguments passed to {@link UpdaterRunnable}.
+ */
+@Getter @AllArgsConstructor public class UpdateResult {
+    //Was the update a success (true) or failure (false).
+    private final boolean successful;
+    //If the update was a failure, the exception that was created (may be null).
+    private final Exception exception;
+    //The plugin that was updated, this will be null if the update failed.
+    private final Plugin plugin;
+    //The name of the plugin updated.
+    private final String pluginName;
+}
@@ -0,0 +1,139 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Periodically checks every registered resource for updates so dependent plugins don't need their own repeating tasks.
+ *
+ * Each resource gets its own random offset so checks are spread out instead of all firing right after startup,
+ * and resources whose checks keep failing are retried with an exponential backoff.
+ */
+public class UpdateScheduler {
+    private final Map<Integer, RegisteredResource> resources = new ConcurrentHashMap<>();
+
+    private final long intervalMillis;
+    private final long jitterMillis;
+    private final long retryMillis;
+    private final long maxBackoffMillis;
+
+    private BukkitTask task;
+
+    /**
+     * @param intervalMillis   Time between two successful checks of the same resource.
+     * @param jitterMillis     Maximum random delay added to every check.
+     * @param retryMillis      Delay before the first retry of a failed check, doubled for every consecutive failure.
+     * @param maxBackoffMillis Upper bound for the retry delay.
+     */
+    public UpdateScheduler(long intervalMillis, long jitterMillis, long retryMillis, long maxBackoffMillis) {
+        this.intervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+        this.retryMillis = retryMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Registers a regular resource to be checked periodically.
+     *
+     * @param plugin     The plugin installed from the resource.
+     * @param resourceId The ID of the resource on Spigot.
+     */
+    public void register(Plugin plugin, int resourceId) {
+        register(plugin, resourceId, false);
+    }
+
+    /**
+     * Registers a resource to be checked periodically.
+     *
+     * @param plugin     The plugin installed from the resource.
+     * @param resourceId The ID of the resource on Spigot.
+     * @param premium    Is the resource a premium resource.
+     */
+    public void register(Plugin plugin, int resourceId, boolean premium) {
+        RegisteredResource resource = new RegisteredResource(plugin, resourceId, premium);
+        resource.nextCheck = System.currentTimeMillis() + jitter();
+
+        resources.put(resourceId, resource);
+        AutoUpdaterAPI.getInstance().getUpdateNotifier().refresh();
+    }
+
+    public void unregister(int resourceId) {
+        resources.remove(resourceId);
+        AutoUpdaterAPI.getInstance().getUpdateNotifier().refresh();
+    }
+
+    public RegisteredResource getResource(int resourceId) {
+        return resources.get(resourceId);
+    }
+
+    public Collection<RegisteredResource> getResources() {
+        return Collections.unmodifiableCollection(resources.values());
+    }
+
+    public void start() {
+        if (task != null)
+            return;
+
+        task = new BukkitRunnable() {
+            @Override
+            public void run() {
+                checkDue();
+            }
+        }.runTaskTimerAsynchronously(AutoUpdaterAPI.getInstance(), 20L, 20L);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private void checkDue() {
+        long now = System.currentTimeMillis();
+
+        for (RegisteredResource resource : resources.values()) {
+            if (resource.checking || now < resource.nextCheck)
+                continue;
+
+            resource.checking = true;
+
+            AutoUpdaterAPI.getInstance().getVersionCheckService().check(resource.getResourceId()).whenComplete((version, ex) -> {
+                if (ex == null) {
+                    resource.failures = 0;
+                    resource.nextCheck = System.currentTimeMillis() + intervalMillis + jitter();
+                    AutoUpdaterAPI.getInstance().getUpdateNotifier().refresh();
+
+                    if (AutoUpdaterAPI.getInstance().isDebug())
+                        AutoUpdaterAPI.getInstance().getLogger().info("Checked " + resource.getPluginName() + " (" + resource.getResourceId() + "), latest version is " + version + ".");
+                } else {
+                    resource.failures++;
+                    resource.nextCheck = System.currentTimeMillis() + backoff(resource.failures) + jitter();
+
+                    if (AutoUpdaterAPI.getInstance().isDebug())
+                        AutoUpdaterAPI.getInstance().getLogger().info("Check of " + resource.getPluginName() + " (" + resource.getResourceId() + ") failed " + resource.failures + " time(s) in a row, backing off.");
+                }
+
+                resource.checking = false;
+            });
+        }
+    }
+
+    private long backoff(int failures) {
+        //Cap the shift so large failure counts can't overflow.
+        long delay = retryMillis << Math.min(failures - 1, 20);
+
+        return Math.min(delay, maxBackoffMillis);
+    }
+
+    private long jitter() {
+        return jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0;
+    }
+}
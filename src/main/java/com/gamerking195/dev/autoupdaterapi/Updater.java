@@ -1,22 +1,18 @@
 package com.gamerking195.dev.autoupdaterapi;
 
 import com.gamerking195.dev.autoupdaterapi.util.UtilPlugin;
-import com.gamerking195.dev.autoupdaterapi.util.UtilReader;
 import com.gamerking195.dev.autoupdaterapi.util.UtilUI;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Caden Kriese (flogic)
@@ -30,6 +26,7 @@ public class Updater {
 
     private String dataFolderPath;
     private String currentVersion;
+    private Version installedVersion;
     private String url;
     private String resourceId;
     private String pluginName;
@@ -38,12 +35,25 @@ public class Updater {
 
     private boolean deleteUpdater;
     private boolean deleteOld;
+    //Download to the staging area and only swap the jars once the new one is verified.
+    private boolean staged;
+    //Limits this update's download on top of the global limit, null for none.
+    private BandwidthLimiter bandwidthLimiter;
+    //Size of the new jar according to Spiget, -1 if unknown.
+    private long expectedSize = -1;
+    private final List<ProgressListener> progressListeners = new ArrayList<>();
+    //Swaps the plugin together with the other updaters of the batch instead of on its own, null for none.
+    private BatchSwap batch;
+    //Has this updater already added its jar to the batch or dropped out of it.
+    private boolean batchDone;
 
     private long startingTime;
 
     private UpdaterRunnable endTask = (successful, ex, updatedPlugin, pluginName) -> {
     };
 
+    private final CompletableFuture<UpdateResult> result = new CompletableFuture<>();
+
     /**
      * Instantiate the updater for a regular resource.
      *
@@ -57,6 +67,7 @@ public class Updater {
     public Updater(Player initiator, Plugin plugin, int resourceId, UpdateLocale locale, boolean deleteUpdater, boolean deleteOld) {
         dataFolderPath = AutoUpdaterAPI.getInstance().getDataFolder().getPath();
         currentVersion = plugin.getDescription().getVersion();
+        installedVersion = Version.parse(currentVersion);
         url = "https://api.spiget.org/v2/resources/" + resourceId;
         this.plugin = plugin;
         this.initiator = initiator;
@@ -64,6 +75,7 @@ public class Updater {
         this.deleteUpdater = deleteUpdater;
         this.deleteOld = deleteOld;
         this.resourceId = String.valueOf(resourceId);
+        result.thenAccept(this::dispatchEndTask);
 
         if (locale.getPluginName() != null) {
             pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion);
@@ -87,6 +99,7 @@ public class Updater {
     public Updater(Player initiator, Plugin plugin, int resourceId, UpdateLocale locale, boolean deleteUpdater, boolean deleteOld, UpdaterRunnable endTask) {
         dataFolderPath = AutoUpdaterAPI.getInstance().getDataFolder().getPath();
         currentVersion = plugin.getDescription().getVersion();
+        installedVersion = Version.parse(currentVersion);
         url = "https://api.spiget.org/v2/resources/" + resourceId;
         this.plugin = plugin;
         this.initiator = initiator;
@@ -95,6 +108,7 @@ public class Updater {
         this.deleteOld = deleteOld;
         this.resourceId = String.valueOf(resourceId);
         this.endTask = endTask;
+        result.thenAccept(this::dispatchEndTask);
 
         if (locale.getPluginName() != null) {
             pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion);
@@ -111,143 +125,414 @@ public class Updater {
      */
     public String getLatestVersion() {
         try {
-            return UtilReader.readFrom("https://api.spigotmc.org/legacy/update.php?resource=" + resourceId);
+            return AutoUpdaterAPI.getInstance().getVersionCheckService().fetchLatestVersion(Integer.parseInt(resourceId));
         } catch (Exception exception) {
             AutoUpdaterAPI.getInstance().printError(exception);
-            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", "&4NULL"));
+            UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", "&4NULL"));
         }
 
         return "";
     }
 
+    /**
+     * Registers a listener that is told about the progress of the download on the main thread.
+     *
+     * @param listener The listener to add.
+     */
+    public void addProgressListener(ProgressListener listener) {
+        progressListeners.add(listener);
+    }
+
+    /**
+     * Limits how fast this update may download, on top of the global limit from the config.
+     *
+     * @param bytesPerSecond The limit in bytes per second, 0 or less for no extra limit.
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bandwidthLimiter = bytesPerSecond > 0 ? new BandwidthLimiter(bytesPerSecond) : null;
+    }
+
+    /**
+     * Swaps the plugin in the same main thread task as every other updater of the batch, in dependency order, instead of on its own.
+     * Set the batch on every participating updater before starting any of them, batched updates are always staged.
+     *
+     * @param batch The batch to take part in.
+     */
+    public void setBatch(BatchSwap batch) {
+        this.batch = batch;
+        batch.join();
+    }
+
+    /**
+     * Updates the plugin, see {@link #updateAsync()}.
+     */
     public void update() {
+        updateAsync();
+    }
+
+    /**
+     * Updates the plugin without blocking the calling thread, every network step is run asynchronously
+     * and only the unload, load and enable steps are run on the main thread.
+     *
+     * @return A future that is completed with the outcome once the update has finished.
+     */
+    public CompletableFuture<UpdateResult> updateAsync() {
         startingTime = System.currentTimeMillis();
-        String newVersion = getLatestVersion();
+        staged = batch != null || AutoUpdaterAPI.getInstance().isStagedUpdates();
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                String newVersion = getLatestVersion();
+
+                //The lookup failure has already been reported.
+                if (newVersion.isEmpty()) {
+                    complete(false, null, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
 
-        if (!newVersion.equalsIgnoreCase(currentVersion)) {
+                if (!AutoUpdaterAPI.getInstance().getUpdatePolicy().shouldUpdate(installedVersion, Version.parse(newVersion))) {
+                    AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + "!", "Plugin is up to date!");
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " [PLUGIN IS UP TO DATE]");
+                    complete(false, null, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
 
-            if (pluginName == null) {
-                locale.setFileName(locale.getFileName().replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
-            } else {
-                pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion);
-                locale.setFileName(locale.getFileName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
-            }
+                if (pluginName == null) {
+                    locale.setFileName(locale.getFileName().replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
+                } else {
+                    pluginName = locale.getPluginName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion);
+                    locale.setFileName(locale.getFileName().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace(" ", "_"));
+                }
 
-            UtilUI.sendActionBarSync(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[RETRIEVING FILES]");
-            try {
-                if (deleteOld) {
-                    File pluginFile = new File(plugin.getClass().getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
+                UtilUI.sendActionBar(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[RETRIEVING FILES]");
+
+                //Fail while the old plugin is untouched if the new one can't be stored.
+                try {
+                    expectedSize = Preflight.check(Integer.parseInt(resourceId), staged ? Staging.getFile(locale.getFileName()).getParentFile() : getInstallFile().getParentFile());
+                } catch (IOException ex) {
+                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ".");
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[NOT ENOUGH DISK SPACE]");
+                    complete(false, ex, getPlugin(pluginName));
+                    delete();
+                    return;
+                }
 
-                    UtilPlugin.unload(plugin);
+                //Keep the installed jar so the update can be rolled back.
+                if (AutoUpdaterAPI.getInstance().getArtifactCache() != null) {
+                    try {
+                        AutoUpdaterAPI.getInstance().getArtifactCache().archive(Integer.parseInt(resourceId), currentVersion, UtilPlugin.getJarFile(plugin));
+                        AutoUpdaterAPI.getInstance().getInstallHistory().pushInitial(plugin.getName(), Integer.parseInt(resourceId), currentVersion);
+                    } catch (Exception ex) {
+                        AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while archiving " + plugin.getName() + ".");
+                    }
+                }
 
-                    if (!pluginFile.delete())
-                        AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + ".", "Could not delete old plugin jar.");
+                if (!deleteOld || staged) {
+                    download(newVersion);
+                    return;
                 }
 
+                //Without staging the old plugin has to be unloaded on the main thread before its jar can be replaced.
                 new BukkitRunnable() {
                     @Override
                     public void run() {
                         try {
+                            File pluginFile = UtilPlugin.getJarFile(plugin);
+                            ClassLoader loader = UtilPlugin.detach(plugin);
 
-                            URL downloadUrl = new URL(url + "/download");
-                            HttpURLConnection httpConnection = (HttpURLConnection) downloadUrl.openConnection();
-                            httpConnection.setRequestProperty("User-Agent", "SpigetResourceUpdater");
-                            long completeFileSize = httpConnection.getContentLength();
+                            //Only detaching has to happen here, the old jar is released and deleted off the main thread before downloading.
+                            new BukkitRunnable() {
+                                @Override
+                                public void run() {
+                                    if (!UtilPlugin.release(loader, pluginFile)) {
+                                        //The new jar would be written over a file that is still held open, or deleted along with it on shutdown.
+                                        if (isSameFile(pluginFile, getInstallFile())) {
+                                            IOException ex = new IOException("Could not delete old plugin jar " + pluginFile.getName() + ", it is still in use.");
+                                            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ", restart the server to load it again.");
+                                            UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
+                                            complete(false, ex, getPlugin(pluginName));
+                                            delete();
+                                            return;
+                                        }
 
-                            int grabSize = 2048;
+                                        pluginFile.deleteOnExit();
+                                        AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + ".", "Could not delete old plugin jar, it will be deleted on shutdown.");
+                                    }
 
-                            BufferedInputStream in = new BufferedInputStream(httpConnection.getInputStream());
-                            FileOutputStream fos = new FileOutputStream(new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar"));
-                            BufferedOutputStream bout = new BufferedOutputStream(fos, grabSize);
+                                    download(newVersion);
+                                }
+                            }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+                        } catch (Exception ex) {
+                            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ".");
+                            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
+                            complete(false, ex, getPlugin(pluginName));
+                            delete();
+                        }
+                    }
+                }.runTask(AutoUpdaterAPI.getInstance());
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
 
-                            byte[] data = new byte[grabSize];
-                            long downloadedFileSize = 0;
-                            int grab;
-                            while ((grab = in.read(data, 0, grabSize)) >= 0) {
-                                downloadedFileSize += grab;
+        return result;
+    }
 
-                                if (downloadedFileSize % (grabSize * 5) == 0) {
-                                    final int currentProgress = (int) ((((double) downloadedFileSize) / ((double) completeFileSize)) * 15);
+    private void download(String newVersion) {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                File target = staged ? Staging.getFile(locale.getFileName()) : getInstallFile();
+                ArtifactCache artifactCache = AutoUpdaterAPI.getInstance().getArtifactCache();
+
+                if (artifactCache != null && artifactCache.install(Integer.parseInt(resourceId), newVersion, target)) {
+                    try {
+                        Staging.verify(target);
+                        install(newVersion, target);
+                        return;
+                    } catch (IOException ex) {
+                        //Never offer the broken entry again, the version is downloaded instead.
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Cached jar of " + plugin.getName() + " v" + newVersion + " is not a valid plugin, downloading it again.");
+                        artifactCache.forget(Integer.parseInt(resourceId), newVersion);
+                    }
+                }
 
-                                    final String currentPercent = String.format("%.2f", (((double) downloadedFileSize) / ((double) completeFileSize)) * 100);
+                //A patch against the installed jar is usually a fraction of the full download.
+                String patchedSha256 = JarPatch.patch(plugin, Integer.parseInt(resourceId), currentVersion, newVersion, target);
+                if (patchedSha256 != null) {
+                    try {
+                        verifyAndStore(newVersion, target, patchedSha256);
+                        install(newVersion, target);
+                        return;
+                    } catch (IOException ex) {
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Patched jar of " + plugin.getName() + " v" + newVersion + " is not a valid plugin, downloading it instead.");
+                    }
+                }
 
-                                    String bar = "&a:::::::::::::::";
+                long downloadStart = System.currentTimeMillis();
+                DownloadProgress progress = new DownloadProgress();
+                progress.setTotal(expectedSize);
+                progress.setLimiter(bandwidthLimiter);
+                ProgressPublisher progressBar = showProgress(progress, newVersion);
+
+                try {
+                    PartialDownload partial = new PartialDownload(target, url + "/download");
+                    long downloadedFileSize = DownloadEngine.download(partial, progress);
+
+                    progressBar.stop();
+
+                    //Record the throughput of a single connection, segmented downloads use that to pick their segment count.
+                    AutoUpdaterAPI.getInstance().getSourceSelector().recordThroughput(VersionSource.SPIGET.getHost(), downloadedFileSize / progress.getSegments(), System.currentTimeMillis() - downloadStart);
+
+                    if (AutoUpdaterAPI.getInstance().isDebug())
+                        AutoUpdaterAPI.getInstance().getLogger().info("Downloaded " + target.getName() + " (" + downloadedFileSize + " bytes, sha256 " + partial.getSha256() + ").");
+
+                    verifyAndStore(newVersion, target, partial.getSha256());
+                    install(newVersion, target);
+                } catch (Exception ex) {
+                    progressBar.stop();
+                    AutoUpdaterAPI.getInstance().getSourceSelector().recordFailure(VersionSource.SPIGET.getHost());
+                    AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ".");
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
+                    complete(false, ex, getPlugin(pluginName));
+                    delete();
+                }
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+    }
 
-                                    bar = bar.substring(0, currentProgress + 2) + "&c" + bar.substring(currentProgress + 2);
+    /**
+     * Checks a patched or downloaded jar is a plugin before it is added to the artifact cache, so an error page or a truncated
+     * body is never cached. A broken jar is deleted.
+     */
+    private void verifyAndStore(String newVersion, File jar, String sha256) throws IOException {
+        Staging.verify(jar);
 
-                                    UtilUI.sendActionBar(initiator, locale.getUpdatingDownload().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%download_bar%", bar).replace("%download_percent%", currentPercent + "%") + " &8[DOWNLOADING]");
-                                }
+        if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+            AutoUpdaterAPI.getInstance().getArtifactCache().store(Integer.parseInt(resourceId), newVersion, jar, sha256);
+    }
 
-                                bout.write(data, 0, grab);
-                            }
+    /**
+     * Loads and enables the downloaded and verified jar on the main thread.
+     */
+    private void install(String newVersion, File downloaded) {
+        if (batch != null) {
+            batchDone = true;
+            batch.arrive(plugin, downloaded, getInstallFile()).thenAccept(swapResult -> {
+                if (pluginName == null && swapResult.getPlugin() != null)
+                    pluginName = swapResult.getPlugin().getName();
+
+                if (swapResult.isSuccessful()) {
+                    if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+                        AutoUpdaterAPI.getInstance().getInstallHistory().push(plugin.getName(), Integer.parseInt(resourceId), newVersion);
+
+                    double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
+                    UtilUI.sendActionBar(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
+                } else
+                    UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
+
+                complete(swapResult.isSuccessful(), swapResult.getException(), swapResult.getPlugin());
+                delete();
+            });
+            return;
+        }
 
-                            bout.close();
-                            in.close();
-                            fos.close();
+        LifecycleScheduler scheduler = AutoUpdaterAPI.getInstance().getLifecycleScheduler();
+        String stepName = plugin.getName();
 
-                            new BukkitRunnable() {
-                                @Override
-                                public void run() {
-                                    try {
-                                        UtilUI.sendActionBarSync(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[INITIALIZING]");
+        //Each step is run on the main thread by the lifecycle scheduler, which spreads them over ticks when they are expensive.
+        scheduler.submit(LifecycleScheduler.Phase.UNLOAD, stepName, () -> {
+            //The old plugin is only taken down now that the new jar is ready, so it is offline for the swap alone.
+            if (staged) {
+                if (deleteOld) {
+                    File pluginFile = UtilPlugin.getJarFile(plugin);
+                    boolean replacedInPlace = pluginFile.getCanonicalFile().equals(getInstallFile().getCanonicalFile());
+                    ClassLoader loader = UtilPlugin.detach(plugin);
 
-                                        List<Plugin> beforePlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
+                    Staging.promote(downloaded, getInstallFile(), loader);
 
-                                        Plugin updated = Bukkit.getPluginManager().loadPlugin(new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar"));
+                    //Closing the old class loader and deleting its jar is file I/O, so it's left to an async task.
+                    UtilPlugin.releaseAsync(loader, replacedInPlace ? null : pluginFile);
+                } else
+                    Staging.promote(downloaded, getInstallFile());
+            }
 
-                                        if (pluginName == null) {
-                                            List<Plugin> afterPlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
-                                            afterPlugins.removeAll(beforePlugins);
-                                            pluginName = afterPlugins.get(0).getName();
-                                        }
+            UtilUI.sendActionBarSync(initiator, locale.getUpdating().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " &8[INITIALIZING]");
+            return null;
+        }).thenCompose(ignored -> scheduler.submit(LifecycleScheduler.Phase.LOAD, stepName, () -> {
+            List<Plugin> beforePlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
 
-                                        Bukkit.getPluginManager().enablePlugin(updated);
+            Plugin updated = Bukkit.getPluginManager().loadPlugin(getInstallFile());
 
-                                        endTask.run(true, null, updated, pluginName);
-                                        double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
-                                        UtilUI.sendActionBarSync(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
+            if (pluginName == null) {
+                List<Plugin> afterPlugins = new ArrayList<>(Arrays.asList(Bukkit.getPluginManager().getPlugins()));
+                afterPlugins.removeAll(beforePlugins);
+                pluginName = afterPlugins.get(0).getName();
+            }
 
-                                        delete();
-                                    } catch (Exception ex) {
-                                        AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while initializing " + pluginName + ".");
-                                        UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
-                                        if (pluginName != null)
-                                            endTask.run(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                                        delete();
-                                    }
-                                }
-                            }.runTask(AutoUpdaterAPI.getInstance());
+            return updated;
+        })).thenCompose(updated -> scheduler.submit(LifecycleScheduler.Phase.ENABLE, stepName, () -> {
+            Bukkit.getPluginManager().enablePlugin(updated);
+            return updated;
+        })).thenCompose(updated -> scheduler.submit(LifecycleScheduler.Phase.CALLBACK, stepName, () -> {
+            if (AutoUpdaterAPI.getInstance().getArtifactCache() != null)
+                AutoUpdaterAPI.getInstance().getInstallHistory().push(plugin.getName(), Integer.parseInt(resourceId), newVersion);
 
-                        } catch (Exception ex) {
-                            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ".");
-                            UtilUI.sendActionBar(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
-                            if (pluginName != null)
-                                endTask.run(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                            delete();
-                        }
-                    }
-                }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
+            complete(true, null, updated);
+            double elapsedTimeSeconds = (double) (System.currentTimeMillis() - startingTime) / 1000;
+            UtilUI.sendActionBarSync(initiator, locale.getUpdateComplete().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%elapsed_time%", String.format("%.2f", elapsedTimeSeconds)));
 
-            } catch (Exception ex) {
-                AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while updating " + pluginName + ".");
-                UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
-                if (pluginName != null)
-                    endTask.run(false, ex, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
-                delete();
-            }
-        } else {
-            AutoUpdaterAPI.getInstance().printPluginError("Error occurred while updating " + pluginName + "!", "Plugin is up to date!");
-            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion) + " [PLUGIN IS UP TO DATE]");
-            endTask.run(false, null, Bukkit.getPluginManager().getPlugin(pluginName), pluginName);
             delete();
-        }
+            return null;
+        })).exceptionally(throwable -> {
+            Exception ex = LifecycleScheduler.unwrap(throwable);
+
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while initializing " + pluginName + ".");
+            UtilUI.sendActionBarSync(initiator, locale.getUpdateFailed().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion));
+            complete(false, ex, getPlugin(pluginName));
+            delete();
+            return null;
+        });
     }
 
     /*
      * UTILITIES
      */
 
+    /**
+     * @return The jar the new version is loaded from.
+     */
+    private File getInstallFile() {
+        return new File(dataFolderPath.substring(0, dataFolderPath.lastIndexOf("/")) + "/" + locale.getFileName() + ".jar");
+    }
+
+    private static boolean isSameFile(File first, File second) {
+        try {
+            return first.getCanonicalFile().equals(second.getCanonicalFile());
+        } catch (IOException ex) {
+            return first.getAbsoluteFile().equals(second.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Publishes the download progress to the initiator's action bar and every registered progress listener.
+     */
+    private ProgressPublisher showProgress(DownloadProgress progress, String newVersion) {
+        ProgressPublisher publisher = new ProgressPublisher(progress);
+
+        publisher.subscribe(event -> {
+            double fraction = event.getFraction();
+
+            if (fraction < 0)
+                return;
+
+            final int currentProgress = (int) (fraction * 15);
+
+            final String currentPercent = String.format("%.2f", fraction * 100);
+
+            String bar = "&a:::::::::::::::";
+
+            bar = bar.substring(0, currentProgress + 2) + "&c" + bar.substring(currentProgress + 2);
+
+            UtilUI.sendActionBarSync(initiator, locale.getUpdatingDownload().replace("%plugin%", plugin.getName()).replace("%old_version%", currentVersion).replace("%new_version%", newVersion).replace("%download_bar%", bar).replace("%download_percent%", currentPercent + "%").replace("%download_speed%", event.formatSpeed()).replace("%download_eta%", event.formatEta()) + " &8[DOWNLOADING]");
+        });
+
+        progressListeners.forEach(publisher::subscribe);
+
+        return publisher.start();
+    }
+
+    private void complete(boolean successful, Exception ex, Plugin updated) {
+        if (batch != null && !batchDone) {
+            batchDone = true;
+            batch.leave();
+        }
+
+        result.complete(new UpdateResult(successful, ex, updated, pluginName));
+    }
+
+    /**
+     * The end task has always been run on the main thread and callers rely on it, so results completed off the main thread are handed over to it.
+     */
+    private void dispatchEndTask(UpdateResult updateResult) {
+        if (Bukkit.isPrimaryThread()) {
+            runEndTask(updateResult);
+            return;
+        }
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                runEndTask(updateResult);
+            }
+        }.runTask(AutoUpdaterAPI.getInstance());
+    }
+
+    private void runEndTask(UpdateResult updateResult) {
+        try {
+            endTask.run(updateResult.isSuccessful(), updateResult.getException(), updateResult.getPlugin(), updateResult.getPluginName());
+        } catch (Exception ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while running the end task for " + pluginName + ".");
+        }
+    }
+
+    private Plugin getPlugin(String name) {
+        return name == null ? null : Bukkit.getPluginManager().getPlugin(name);
+    }
+
     void delete() {
+        //Runs after the end task, which is dispatched to the main thread first when the update finished off it.
+        if (deleteUpdater && !Bukkit.isPrimaryThread()) {
+            new BukkitRunnable() {
+                @Override
+                public void run() {
+                    delete();
+                }
+            }.runTask(AutoUpdaterAPI.getInstance());
+            return;
+        }
+
         if (deleteUpdater) {
             try {
                 if (!new File(AutoUpdaterAPI.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath()).delete())
@@ -0,0 +1,212 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed plugin version that can be ordered, supporting semver, dotted numerics ("1.2" equals "1.2.0"),
+ * pre-release tags ("1.3-beta.2", "2.0rc1") and SNAPSHOTs. Build metadata after a '+' is ignored.
+ *
+ * Only the known pre-release tags make a version a pre-release, any other suffix ("1.8.1a", "2.0-hotfix") is
+ * taken as a patch release and ordered after the bare version.
+ */
+public final class Version implements Comparable<Version> {
+    //Known pre-release tags from least to most mature, anything unknown is ordered after these alphabetically.
+    private static final List<String> PRE_RELEASE_TAGS = Arrays.asList("snapshot", "dev", "alpha", "a", "beta", "b", "pre", "rc");
+    //Short tags that only count as pre-release when separated from the numbers, "1.0-b2" is a beta but "1.8.1a" is not.
+    private static final List<String> SHORT_TAGS = Arrays.asList("a", "b");
+    //Qualifiers that mean the version is a normal release.
+    private static final List<String> RELEASE_TAGS = Arrays.asList("release", "final", "ga", "stable");
+
+    @Getter private final String original;
+
+    private final long[] numbers;
+    private final String[] qualifier;
+    private final boolean preRelease;
+    private final boolean numeric;
+
+    private Version(String original, long[] numbers, String[] qualifier, boolean preRelease, boolean numeric) {
+        this.original = original;
+        this.numbers = numbers;
+        this.qualifier = qualifier;
+        this.preRelease = preRelease;
+        this.numeric = numeric;
+    }
+
+    /**
+     * Parses a version string, this never fails; strings without a leading number are {@link #isNumeric() non numeric}.
+     *
+     * @param version The version string as found in a plugin.yml or on Spigot.
+     * @return The parsed version.
+     */
+    public static Version parse(String version) {
+        String value = version == null ? "" : version.trim();
+
+        if (value.startsWith("v") || value.startsWith("V"))
+            value = value.substring(1);
+
+        int metadata = value.indexOf('+');
+        if (metadata >= 0)
+            value = value.substring(0, metadata);
+
+        //Leading dotted numbers.
+        List<Long> numbers = new ArrayList<>();
+        int index = 0;
+        while (index < value.length() && Character.isDigit(value.charAt(index))) {
+            int start = index;
+            while (index < value.length() && Character.isDigit(value.charAt(index)))
+                index++;
+
+            try {
+                numbers.add(Long.parseLong(value.substring(start, index)));
+            } catch (NumberFormatException ex) {
+                numbers.add(Long.MAX_VALUE);
+            }
+
+            if (index + 1 < value.length() && value.charAt(index) == '.' && Character.isDigit(value.charAt(index + 1)))
+                index++;
+            else
+                break;
+        }
+
+        //Trailing zeros don't change the version, 1.2 == 1.2.0.
+        int length = numbers.size();
+        while (length > 0 && numbers.get(length - 1) == 0)
+            length--;
+
+        long[] parts = new long[length];
+        for (int i = 0; i < length; i++)
+            parts[i] = numbers.get(i);
+
+        String rest = value.substring(index);
+        String[] qualifier = parseQualifier(rest);
+
+        boolean preRelease = qualifier.length > 0 && PRE_RELEASE_TAGS.contains(qualifier[0]);
+        if (preRelease && SHORT_TAGS.contains(qualifier[0]) && index > 0 && Character.isLetter(rest.charAt(0)))
+            preRelease = false;
+
+        return new Version(version, parts, qualifier, preRelease, !numbers.isEmpty());
+    }
+
+    private static String[] parseQualifier(String rest) {
+        String lower = rest.toLowerCase(Locale.ROOT);
+
+        //Split on separators and on boundaries between letters and digits, "beta.2" and "beta2" become [beta, 2].
+        List<String> identifiers = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+
+            if (!Character.isLetterOrDigit(c)) {
+                flush(identifiers, current);
+                continue;
+            }
+
+            if (current.length() > 0 && Character.isDigit(c) != Character.isDigit(current.charAt(current.length() - 1)))
+                flush(identifiers, current);
+
+            current.append(c);
+        }
+        flush(identifiers, current);
+
+        if (identifiers.size() == 1 && RELEASE_TAGS.contains(identifiers.get(0)))
+            identifiers.clear();
+
+        return identifiers.toArray(new String[0]);
+    }
+
+    private static void flush(List<String> identifiers, StringBuilder current) {
+        if (current.length() > 0) {
+            identifiers.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    /**
+     * @return True if the version started with a number and can be meaningfully ordered.
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @return True if the version carries a pre-release qualifier such as -SNAPSHOT, -beta or rc1.
+     */
+    public boolean isPreRelease() {
+        return preRelease;
+    }
+
+    @Override
+    public int compareTo(Version other) {
+        for (int i = 0; i < Math.max(numbers.length, other.numbers.length); i++) {
+            long mine = i < numbers.length ? numbers[i] : 0;
+            long theirs = i < other.numbers.length ? other.numbers[i] : 0;
+
+            if (mine != theirs)
+                return mine < theirs ? -1 : 1;
+        }
+
+        //Pre-releases come before the release, which comes before any other suffix of the same version.
+        int rank = rank();
+        int otherRank = other.rank();
+
+        if (rank != otherRank)
+            return Integer.compare(rank, otherRank);
+
+        for (int i = 0; i < Math.min(qualifier.length, other.qualifier.length); i++) {
+            int result = compareIdentifier(qualifier[i], other.qualifier[i]);
+
+            if (result != 0)
+                return result;
+        }
+
+        return Integer.compare(qualifier.length, other.qualifier.length);
+    }
+
+    private int rank() {
+        return preRelease ? 0 : qualifier.length == 0 ? 1 : 2;
+    }
+
+    private static int compareIdentifier(String mine, String theirs) {
+        boolean mineNumeric = Character.isDigit(mine.charAt(0));
+        boolean theirsNumeric = Character.isDigit(theirs.charAt(0));
+
+        if (mineNumeric && theirsNumeric) {
+            int result = Integer.compare(mine.length(), theirs.length());
+            return result != 0 ? result : mine.compareTo(theirs);
+        }
+
+        if (mineNumeric != theirsNumeric)
+            return mineNumeric ? -1 : 1;
+
+        int mineRank = PRE_RELEASE_TAGS.indexOf(mine);
+        int theirsRank = PRE_RELEASE_TAGS.indexOf(theirs);
+
+        if (mineRank >= 0 && theirsRank >= 0)
+            return Integer.compare(mineRank, theirsRank);
+
+        if (mineRank >= 0 || theirsRank >= 0)
+            return mineRank >= 0 ? -1 : 1;
+
+        return mine.compareTo(theirs);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Version && compareTo((Version) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(numbers) + Arrays.hashCode(qualifier);
+    }
+
+    @Override
+    public String toString() {
+        return original;
+    }
+}
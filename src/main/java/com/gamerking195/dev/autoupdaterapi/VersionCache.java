@@ -0,0 +1,145 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches latest-version lookups per resource ID, including the validators needed to revalidate them and
+ * recent failures, and persists them to the data folder so a restart does not cause a burst of lookups.
+ */
+public class VersionCache {
+    private final File cacheFile;
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    //How long a successful lookup is used without asking the server again.
+    @Getter @Setter private long ttlMillis;
+    //How long a failed lookup is remembered before it may be retried.
+    @Getter @Setter private long failureTtlMillis;
+
+    private volatile boolean dirty;
+
+    public VersionCache(File cacheFile, long ttlMillis, long failureTtlMillis) {
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMillis;
+        this.failureTtlMillis = failureTtlMillis;
+    }
+
+    public Entry get(int resourceId) {
+        return entries.get(resourceId);
+    }
+
+    /**
+     * @param entry The entry to check.
+     * @return True if the entry (successful or failed) can be used without contacting the server.
+     */
+    public boolean isFresh(Entry entry) {
+        long now = System.currentTimeMillis();
+
+        if (entry.isFailed())
+            return now - entry.getFailedAt() < failureTtlMillis;
+
+        return now - entry.getCheckedAt() < ttlMillis;
+    }
+
+    public void put(int resourceId, Entry entry) {
+        entries.put(resourceId, entry);
+        dirty = true;
+    }
+
+    /**
+     * Records a successful lookup.
+     */
+    public void putVersion(int resourceId, String version, String etag, String lastModified, String source) {
+        put(resourceId, new Entry(version, etag, lastModified, source, System.currentTimeMillis(), 0));
+    }
+
+    /**
+     * Records a failed lookup, the last known version and validators are kept.
+     */
+    public void putFailure(int resourceId) {
+        Entry previous = entries.get(resourceId);
+
+        if (previous == null)
+            put(resourceId, new Entry(null, null, null, null, 0, System.currentTimeMillis()));
+        else
+            put(resourceId, new Entry(previous.getVersion(), previous.getEtag(), previous.getLastModified(), previous.getSource(), previous.getCheckedAt(), System.currentTimeMillis()));
+    }
+
+    public void invalidate(int resourceId) {
+        if (entries.remove(resourceId) != null)
+            dirty = true;
+    }
+
+    public void load() {
+        if (!cacheFile.exists())
+            return;
+
+        ConfigurationSection resources = YamlConfiguration.loadConfiguration(cacheFile).getConfigurationSection("resources");
+
+        if (resources == null)
+            return;
+
+        for (String key : resources.getKeys(false)) {
+            try {
+                ConfigurationSection section = resources.getConfigurationSection(key);
+                entries.put(Integer.parseInt(key), new Entry(section.getString("version"), section.getString("etag"), section.getString("last-modified"), section.getString("source"), section.getLong("checked-at"), section.getLong("failed-at")));
+            } catch (Exception ex) {
+                AutoUpdaterAPI.getInstance().getLogger().warning("Skipping invalid version cache entry '" + key + "'.");
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to disk if it changed since the last save.
+     */
+    public void save() {
+        if (!dirty)
+            return;
+
+        dirty = false;
+
+        YamlConfiguration config = new YamlConfiguration();
+        entries.forEach((resourceId, entry) -> {
+            String path = "resources." + resourceId + ".";
+            config.set(path + "version", entry.getVersion());
+            config.set(path + "etag", entry.getEtag());
+            config.set(path + "last-modified", entry.getLastModified());
+            config.set(path + "source", entry.getSource());
+            config.set(path + "checked-at", entry.getCheckedAt());
+            config.set(path + "failed-at", entry.getFailedAt());
+        });
+
+        try {
+            if (!cacheFile.getParentFile().exists())
+                cacheFile.getParentFile().mkdirs();
+
+            config.save(cacheFile);
+        } catch (IOException ex) {
+            dirty = true;
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while saving the version cache.");
+        }
+    }
+
+    @Getter @AllArgsConstructor public static class Entry {
+        //The last version that was successfully retrieved, null if there never was one.
+        private final String version;
+        private final String etag;
+        private final String lastModified;
+        //The version source the validators belong to.
+        private final String source;
+        private final long checkedAt;
+        private final long failedAt;
+
+        public boolean isFailed() {
+            return failedAt > checkedAt;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHttp;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up the latest versions of resources, running batches of lookups concurrently on a bounded pool so
+ * checking many resources takes about as long as the slowest single lookup.
+ *
+ * Lookups go to the fastest healthy {@link VersionSource} according to the {@link SourceSelector} and fail over
+ * to the other sources when it doesn't answer.
+ */
+public class VersionCheckService {
+    @Getter private final int parallelism;
+
+    @Getter private final LatencyTracker latencyTracker = new LatencyTracker();
+
+    //Should slow lookups be raced against a second request.
+    @Getter @Setter private boolean hedging;
+    //The latency percentile of the host after which the second request is sent.
+    @Getter @Setter private double hedgePercentile = 95;
+    //Never hedge before this delay, even if the host is usually faster.
+    @Getter @Setter private long hedgeMinDelayMillis = 250;
+
+    private final ExecutorService executor;
+    private final ExecutorService hedgeExecutor;
+
+    /**
+     * @param parallelism The maximum amount of lookups that may run at the same time.
+     */
+    public VersionCheckService(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "AutoUpdaterAPI-VersionCheck-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger hedgeThreadCount = new AtomicInteger();
+        hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "AutoUpdaterAPI-VersionLookup-" + hedgeThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Retrieves the latest version of a resource on the calling thread.
+     *
+     * Fresh results are served from the {@link VersionCache}, stale ones are revalidated with If-None-Match /
+     * If-Modified-Since when the server provided validators, and recent failures are not retried until they expire.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @return The latest version of the resource.
+     * @throws IOException If the lookup failed, now or recently.
+     */
+    public String fetchLatestVersion(int resourceId) throws IOException {
+        VersionCache cache = AutoUpdaterAPI.getInstance().getVersionCache();
+        VersionCache.Entry cached = cache.get(resourceId);
+
+        if (cached != null && cache.isFresh(cached)) {
+            if (cached.isFailed())
+                throw new IOException("Latest version lookup for resource " + resourceId + " failed recently, not retrying yet.");
+
+            return cached.getVersion();
+        }
+
+        List<VersionSource> sources = AutoUpdaterAPI.getInstance().getSourceSelector().rankVersionSources();
+
+        try {
+            Lookup lookup = hedging ? lookupHedged(resourceId, cached, sources) : lookup(resourceId, cached, sources);
+
+            if (lookup.version == null) {
+                cache.putVersion(resourceId, cached.getVersion(), cached.getEtag(), cached.getLastModified(), cached.getSource());
+                return cached.getVersion();
+            }
+
+            cache.putVersion(resourceId, lookup.version, lookup.etag, lookup.lastModified, lookup.source.name());
+            return lookup.version;
+        } catch (IOException ex) {
+            cache.putFailure(resourceId);
+            throw ex;
+        }
+    }
+
+    /**
+     * Tries the sources in order, failing over to the next one until one answers.
+     */
+    private Lookup lookup(int resourceId, VersionCache.Entry cached, List<VersionSource> sources) throws IOException {
+        IOException failure = null;
+
+        for (VersionSource source : sources) {
+            try {
+                return lookup(resourceId, cached, source);
+            } catch (IOException ex) {
+                if (AutoUpdaterAPI.getInstance().isDebug())
+                    AutoUpdaterAPI.getInstance().getLogger().info("Version lookup for resource " + resourceId + " via " + source.getHost() + " failed: " + ex.getMessage());
+
+                failure = ex;
+            }
+        }
+
+        throw failure != null ? failure : new IOException("No version sources available.");
+    }
+
+    private Lookup lookup(int resourceId, VersionCache.Entry cached, VersionSource source) throws IOException {
+        SourceSelector selector = AutoUpdaterAPI.getInstance().getSourceSelector();
+        long start = System.currentTimeMillis();
+
+        try {
+            HttpURLConnection connection = UtilHttp.openConnection(source.getUrl(resourceId));
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            //Validators are only meaningful to the source that issued them.
+            boolean conditional = cached != null && cached.getVersion() != null && source.name().equals(cached.getSource());
+            if (conditional) {
+                if (cached.getEtag() != null)
+                    connection.setRequestProperty("If-None-Match", cached.getEtag());
+                if (cached.getLastModified() != null)
+                    connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+
+            Lookup lookup = new Lookup();
+            lookup.source = source;
+
+            if (conditional && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                UtilHttp.discard(connection);
+            } else {
+                lookup.version = source.parseVersion(UtilHttp.readBody(connection));
+                lookup.etag = connection.getHeaderField("ETag");
+                lookup.lastModified = connection.getHeaderField("Last-Modified");
+            }
+
+            long latency = System.currentTimeMillis() - start;
+            latencyTracker.record(source.getHost(), latency);
+            selector.recordSuccess(source.getHost(), latency);
+
+            return lookup;
+        } catch (IOException ex) {
+            selector.recordFailure(source.getHost());
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends a second request if the first one hasn't answered within the tracked latency percentile of its
+     * source and uses whichever answers first, the second request prefers the next best source.
+     */
+    private Lookup lookupHedged(int resourceId, VersionCache.Entry cached, List<VersionSource> sources) throws IOException {
+        CompletableFuture<Lookup> primary = lookupAsync(resourceId, cached, sources);
+
+        long delay = Math.max(hedgeMinDelayMillis, latencyTracker.getPercentile(sources.get(0).getHost(), hedgePercentile));
+
+        try {
+            return primary.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            if (AutoUpdaterAPI.getInstance().isDebug())
+                AutoUpdaterAPI.getInstance().getLogger().info("Version lookup for resource " + resourceId + " took over " + delay + "ms, sending hedged request.");
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while looking up resource " + resourceId + ".", ex);
+        }
+
+        List<VersionSource> hedgeSources = new ArrayList<>(sources);
+        Collections.rotate(hedgeSources, -1);
+
+        CompletableFuture<Lookup> hedge = lookupAsync(resourceId, cached, hedgeSources);
+
+        //First successful answer wins, only fail once both requests failed.
+        CompletableFuture<Lookup> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<Lookup> attempt : Arrays.asList(primary, hedge)) {
+            attempt.whenComplete((lookup, ex) -> {
+                if (ex == null)
+                    winner.complete(lookup);
+                else if (failed.incrementAndGet() == 2)
+                    winner.completeExceptionally(ex);
+            });
+        }
+
+        try {
+            return winner.get();
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while looking up resource " + resourceId + ".", ex);
+        }
+    }
+
+    private CompletableFuture<Lookup> lookupAsync(int resourceId, VersionCache.Entry cached, List<VersionSource> sources) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return lookup(resourceId, cached, sources);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, hedgeExecutor);
+    }
+
+    private static IOException unwrap(Exception ex) {
+        Throwable cause = ex;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null)
+            cause = cause.getCause();
+
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    /**
+     * Retrieves the latest version of a resource on the lookup pool.
+     *
+     * @param resourceId The ID of the resource on Spigot.
+     * @return A future completed with the latest version, or exceptionally if the lookup failed.
+     */
+    public CompletableFuture<String> check(int resourceId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetchLatestVersion(resourceId);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Retrieves the latest versions of several resources at once, at most {@link #getParallelism()} at a time.
+     *
+     * @param resourceIds The IDs of the resources on Spigot.
+     * @return A future completed with a map of resource ID to latest version, resources that could not be checked are left out.
+     */
+    public CompletableFuture<Map<Integer, String>> checkAll(Collection<Integer> resourceIds) {
+        Map<Integer, String> results = new ConcurrentHashMap<>();
+
+        CompletableFuture<?>[] checks = new LinkedHashSet<>(resourceIds).stream()
+                .map(resourceId -> check(resourceId).handle((version, ex) -> {
+                    if (ex == null)
+                        results.put(resourceId, version);
+                    else
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Could not check the latest version of resource " + resourceId + ": " + (ex.getCause() != null ? ex.getCause() : ex).getMessage());
+
+                    return null;
+                }))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(checks).thenApply(ignored -> results);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        hedgeExecutor.shutdownNow();
+    }
+
+    private static class Lookup {
+        private VersionSource source;
+        //Null if the server answered 304 Not Modified.
+        private String version;
+        private String etag;
+        private String lastModified;
+    }
+}
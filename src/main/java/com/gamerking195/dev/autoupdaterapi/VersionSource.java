@@ -0,0 +1,52 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Endpoints the latest version of a resource can be read from.
+ */
+public enum VersionSource {
+    SPIGOT("api.spigotmc.org", "https://api.spigotmc.org/legacy/update.php?resource=%d"),
+    SPIGET("api.spiget.org", "https://api.spiget.org/v2/resources/%d/versions/latest");
+
+    @Getter private final String host;
+    private final String urlFormat;
+
+    VersionSource(String host, String urlFormat) {
+        this.host = host;
+        this.urlFormat = urlFormat;
+    }
+
+    public String getUrl(int resourceId) {
+        return String.format(urlFormat, resourceId);
+    }
+
+    /**
+     * @param body The response body returned by this source.
+     * @return The version contained in the body.
+     * @throws IOException If the body does not contain a version.
+     */
+    public String parseVersion(String body) throws IOException {
+        String version;
+
+        if (this == SPIGET) {
+            try {
+                JsonElement name = new JsonParser().parse(body).getAsJsonObject().get("name");
+                version = name == null || name.isJsonNull() ? "" : name.getAsString().trim();
+            } catch (RuntimeException ex) {
+                throw new IOException("Spiget returned an invalid version response.", ex);
+            }
+        } else {
+            version = body.trim();
+        }
+
+        if (version.isEmpty())
+            throw new IOException(host + " returned no version.");
+
+        return version;
+    }
+}
@@ -0,0 +1,231 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilSpigotCreds;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional embedded HTTP endpoint that lets a CI pipeline or release bot push new versions instead of waiting for the next scheduled check.
+ *
+ * POST /update with the form (or query) parameters resource=&lt;id&gt; and optionally version=&lt;version&gt; immediately
+ * checks and updates a resource registered with the {@link UpdateScheduler}. When a token is configured it has to be sent
+ * as "Authorization: Bearer &lt;token&gt;".
+ */
+public class WebhookListener {
+    private static final int MAX_BODY = 8192;
+    //An update still running after this long (in ticks) no longer blocks new webhooks for its resource.
+    private static final long UPDATE_TIMEOUT_TICKS = 20L * 60 * 30;
+
+    private final String bindAddress;
+    private final int port;
+    private final String token;
+
+    private final Set<Integer> updating = ConcurrentHashMap.newKeySet();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public WebhookListener(String bindAddress, int port, String token) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.token = token == null || token.isEmpty() ? null : token;
+    }
+
+    /**
+     * @throws IOException If the port could not be bound, or if no token is set while listening on an address other hosts can reach.
+     */
+    public void start() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(bindAddress, port);
+
+        //Without a token anyone who can reach the port can make the server download and load plugins.
+        if (token == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress()))
+            throw new IOException("Refusing to listen for update webhooks on " + bindAddress + " without a token, set webhook.token or bind to 127.0.0.1.");
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/update", this::handleUpdate);
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AutoUpdaterAPI-Webhook");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        AutoUpdaterAPI.getInstance().getLogger().info("Listening for update webhooks on " + bindAddress + ":" + port + ".");
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Only POST is supported.");
+                return;
+            }
+
+            if (token != null && !isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401, "Invalid token.");
+                return;
+            }
+
+            Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+            parameters.putAll(parseParameters(readBody(exchange.getRequestBody())));
+
+            int resourceId;
+            try {
+                resourceId = Integer.parseInt(parameters.get("resource"));
+            } catch (NumberFormatException ex) {
+                respond(exchange, 400, "Missing or invalid resource parameter.");
+                return;
+            }
+
+            RegisteredResource resource = AutoUpdaterAPI.getInstance().getUpdateScheduler().getResource(resourceId);
+
+            if (resource == null) {
+                respond(exchange, 404, "Resource " + resourceId + " is not registered.");
+                return;
+            }
+
+            //Looked up on every webhook, the instance registered with the scheduler is gone after the first update.
+            Plugin plugin = resource.getPlugin();
+
+            if (plugin == null) {
+                respond(exchange, 503, resource.getPluginName() + " is not loaded right now.");
+                return;
+            }
+
+            String version = parameters.get("version");
+            String installed = plugin.getDescription().getVersion();
+
+            if (version != null && !AutoUpdaterAPI.getInstance().getUpdatePolicy().shouldUpdate(Version.parse(installed), Version.parse(version))) {
+                respond(exchange, 200, plugin.getName() + " is already on " + installed + ".");
+                return;
+            }
+
+            //Logging in would need a player to type the credentials in, which a webhook doesn't have.
+            if (resource.isPremium() && AutoUpdaterAPI.getInstance().getCurrentUser() == null
+                    && (UtilSpigotCreds.getInstance().getUsername() == null || UtilSpigotCreds.getInstance().getPassword() == null)) {
+                respond(exchange, 503, "No Spigot credentials are stored, log in in-game once before updating premium resources by webhook.");
+                return;
+            }
+
+            if (!updating.add(resourceId)) {
+                respond(exchange, 409, "An update of resource " + resourceId + " is already running.");
+                return;
+            }
+
+            AutoUpdaterAPI.getInstance().getLogger().info("Update of " + plugin.getName() + (version == null ? "" : " to " + version) + " requested by webhook.");
+
+            //Drop the cached lookup so the update sees the new version right away.
+            AutoUpdaterAPI.getInstance().getVersionCache().invalidate(resourceId);
+
+            CompletableFuture<UpdateResult> update;
+            try {
+                update = update(resource, plugin);
+            } catch (RuntimeException ex) {
+                updating.remove(resourceId);
+                throw ex;
+            }
+
+            update.whenComplete((result, ex) -> updating.remove(resourceId));
+
+            new BukkitRunnable() {
+                @Override
+                public void run() {
+                    if (!update.isDone() && updating.remove(resourceId))
+                        AutoUpdaterAPI.getInstance().getLogger().warning("Webhook update of resource " + resourceId + " did not finish in time, accepting new webhooks for it again.");
+                }
+            }.runTaskLaterAsynchronously(AutoUpdaterAPI.getInstance(), UPDATE_TIMEOUT_TICKS);
+
+            respond(exchange, 202, "Update of " + plugin.getName() + " started.");
+        } catch (Exception ex) {
+            AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while handling an update webhook.");
+            respond(exchange, 500, "Internal error.");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Compares the Authorization header in constant time so the token can't be guessed byte by byte from response times.
+     */
+    private boolean isAuthorized(String header) {
+        byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        byte[] actual = header == null ? new byte[0] : header.getBytes(StandardCharsets.UTF_8);
+
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private CompletableFuture<UpdateResult> update(RegisteredResource resource, Plugin plugin) {
+        UpdateLocale locale = new UpdateLocale();
+        locale.setFileName(plugin.getName() + "-%new_version%");
+        locale.setPluginName(plugin.getName());
+
+        if (resource.isPremium())
+            return new PremiumUpdater(null, plugin, resource.getResourceId(), locale, false, true).updateAsync();
+
+        return new Updater(null, plugin, resource.getResourceId(), locale, false, true).updateAsync();
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1 && body.size() < MAX_BODY) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseParameters(String encoded) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+
+        if (encoded == null || encoded.isEmpty())
+            return parameters;
+
+        for (String pair : encoded.trim().split("&")) {
+            int separator = pair.indexOf('=');
+
+            if (separator > 0)
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"), URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+        }
+
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
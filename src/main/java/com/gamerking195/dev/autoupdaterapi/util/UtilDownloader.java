@@ -2,15 +2,16 @@ package com.gamerking195.dev.autoupdaterapi.util;
 
 
 import com.gamerking195.dev.autoupdaterapi.AutoUpdaterAPI;
+import com.gamerking195.dev.autoupdaterapi.DownloadEngine;
+import com.gamerking195.dev.autoupdaterapi.DownloadProgress;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.util.logging.Logger;
 
 /*
@@ -65,16 +66,17 @@ public class UtilDownloader {
     }
 
     public static void downloadFile(String url, String location) throws IOException {
-        URL website = new URL(url);
-        ReadableByteChannel rbc = Channels.newChannel(website.openStream());
         File yourFile = new File(location);
         yourFile.getParentFile().mkdirs();
         if (!yourFile.exists()) {
             yourFile.createNewFile();
         }
-        FileOutputStream fos = new FileOutputStream(yourFile);
-        fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-        fos.close();
+
+        try (InputStream in = UtilHttp.openStream(UtilHttp.openConnection(url));
+             FileOutputStream fos = new FileOutputStream(yourFile)) {
+            //Goes through the download engine so the bandwidth limit applies to libraries as well.
+            DownloadEngine.transfer(in, fos.getChannel(), 0, new DownloadProgress(), null);
+        }
     }
 
     public static void addURL(URL u) throws IOException {
@@ -0,0 +1,81 @@
+package com.gamerking195.dev.autoupdaterapi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers for verifying and addressing downloaded artifacts.
+ */
+public class UtilHash {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * @return A new SHA-256 digest.
+     */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param file The file to hash.
+     * @return The lowercase hex SHA-256 of the whole file.
+     * @throws IOException If the file could not be read.
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, file, Long.MAX_VALUE);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Feeds the start of a file into a digest.
+     *
+     * @param digest The digest to update.
+     * @param file   The file to read.
+     * @param length The amount of bytes to read, reading stops early at the end of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long remaining = length;
+
+            while (remaining > 0) {
+                buffer.clear();
+
+                if (remaining < buffer.capacity())
+                    buffer.limit((int) remaining);
+
+                int read = channel.read(buffer);
+                if (read == -1)
+                    break;
+
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= read;
+            }
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+}
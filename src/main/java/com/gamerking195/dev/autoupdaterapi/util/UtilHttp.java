@@ -0,0 +1,122 @@
+package com.gamerking195.dev.autoupdaterapi.util;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared HTTP transport for every request made outside of HTML Unit.
+ *
+ * Connections are pooled by the JDK keep-alive cache (keyed by host and the shared default SSL socket factory, which
+ * also lets TLS sessions be resumed), but only when a response body is fully read and closed, so every helper here
+ * drains the stream it was given, including error bodies.
+ */
+public class UtilHttp {
+    public static final String USER_AGENT = "AutoUpdaterAPI";
+
+    @Getter @Setter private static int connectTimeout = 5000;
+    @Getter @Setter private static int readTimeout = 15000;
+
+    /**
+     * Opens a connection with the shared timeouts and headers applied, the request is not sent until the connection is used.
+     *
+     * @param url The url to connect to.
+     * @return The configured connection.
+     * @throws IOException If the url is malformed or the connection could not be created.
+     */
+    public static HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        connection.setRequestProperty("Connection", "keep-alive");
+        return connection;
+    }
+
+    /**
+     * Opens the response body of a connection, transparently decompressing gzip encoded responses.
+     *
+     * @param connection The connection to read from.
+     * @return The (decompressed) response body.
+     * @throws IOException If the server responded with an error status or the body could not be opened.
+     */
+    public static InputStream openStream(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+
+        if (status >= 400) {
+            discard(connection);
+            throw new IOException("Server returned HTTP " + status + " for " + connection.getURL());
+        }
+
+        InputStream in = connection.getInputStream();
+
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+            return new GZIPInputStream(in);
+
+        return in;
+    }
+
+    /**
+     * Reads a small text response, requesting gzip compression from the server.
+     *
+     * @param url The url to read.
+     * @return The response body as a string.
+     * @throws IOException If the request fails or times out.
+     */
+    public static String readString(String url) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        return readBody(connection);
+    }
+
+    /**
+     * Reads the whole response body of a connection as UTF-8 text and releases the connection back to the pool.
+     *
+     * @param connection The connection to read from.
+     * @return The response body as a string.
+     * @throws IOException If the request fails or times out.
+     */
+    public static String readBody(HttpURLConnection connection) throws IOException {
+        try (Reader reader = new InputStreamReader(openStream(connection), StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Drains and closes whatever body a connection has so the underlying socket can be reused.
+     *
+     * @param connection The connection to release.
+     */
+    public static void discard(HttpURLConnection connection) {
+        try {
+            InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+            if (in != null) {
+                try (InputStream body = in) {
+                    byte[] buffer = new byte[1024];
+                    while (body.read(buffer) != -1) {
+                        //Discard.
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -3,22 +3,131 @@ package com.gamerking195.dev.autoupdaterapi.util;
 import com.gamerking195.dev.autoupdaterapi.AutoUpdaterAPI;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
+import org.bukkit.command.CommandMap;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.SimpleCommandMap;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.scheduler.BukkitRunnable;
 
-import java.awt.*;
+import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.net.URISyntaxException;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 
 public class UtilPlugin {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    //Resolved once by probe(), null if the field doesn't exist on the running server.
+    private static MethodHandle pluginsGetter;
+    private static MethodHandle lookupNamesGetter;
+    private static MethodHandle listenersGetter;
+    private static MethodHandle commandMapGetter;
+    private static MethodHandle knownCommandsGetter;
+    private static MethodHandle pluginSetter;
+    private static MethodHandle pluginInitSetter;
+    private static Class<?> pluginClassLoaderClass;
+    private static volatile boolean probed;
+
+    /**
+     * Resolves every field unload() needs into cached method handles and logs which of them exist on the running server,
+     * so unloading a plugin doesn't have to look anything up on the main thread.
+     *
+     * Called on enable, calling it again does nothing.
+     */
+    public static synchronized void probe() {
+        if (probed)
+            return;
+
+        List<String> missing = new ArrayList<>();
+        Class<?> pluginManagerClass = Bukkit.getPluginManager().getClass();
+
+        pluginsGetter = resolve(pluginManagerClass, "plugins", false, missing);
+        lookupNamesGetter = resolve(pluginManagerClass, "lookupNames", false, missing);
+        listenersGetter = resolve(pluginManagerClass, "listeners", false, missing);
+        commandMapGetter = resolve(pluginManagerClass, "commandMap", false, missing);
+        knownCommandsGetter = resolve(SimpleCommandMap.class, "knownCommands", false, missing);
+
+        //Every plugin shares the same loader class, so our own tells us what to look for.
+        pluginClassLoaderClass = AutoUpdaterAPI.class.getClassLoader().getClass();
+        pluginSetter = resolve(pluginClassLoaderClass, "plugin", true, missing);
+        pluginInitSetter = resolve(pluginClassLoaderClass, "pluginInit", true, missing);
+
+        probed = true;
+
+        if (missing.isEmpty())
+            AutoUpdaterAPI.getInstance().getLogger().info("Plugin unloading is fully supported on this server.");
+        else
+            AutoUpdaterAPI.getInstance().getLogger().info("Plugin unloading support, fields not present on this server: " + String.join(", ", missing) + ".");
+    }
+
+    private static MethodHandle resolve(Class<?> owner, String name, boolean setter, List<String> missing) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+
+            if (setter)
+                return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+            else
+                return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (NoSuchFieldException | SecurityException | IllegalAccessException ex) {
+            missing.add(owner.getSimpleName() + "." + name);
+            return null;
+        }
+    }
+
+    private static Object get(MethodHandle getter, Object owner) {
+        try {
+            return getter == null ? null : (Object) getter.invokeExact(owner);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void set(MethodHandle setter, Object owner, Object value) {
+        try {
+            if (setter != null)
+                setter.invokeExact(owner, value);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param plugin The plugin to look up.
+     * @return The jar the plugin was loaded from.
+     * @throws URISyntaxException If the location of the jar can't be converted to a file.
+     */
+    public static File getJarFile(Plugin plugin) throws URISyntaxException {
+        return new File(plugin.getClass().getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
+    }
+
+    /**
+     * Detaches and releases the plugin in one go on the calling thread, leaving its jar in place.
+     *
+     * @param plugin The plugin that needs to be unloaded.
+     */
+    public static void unload(Plugin plugin) {
+        release(detach(plugin), null);
+    }
+
     /**
      * Method is from PlugMan, developed by Ryan Clancy "rylinaux"
      *
@@ -28,10 +137,18 @@ public class UtilPlugin {
      *
      * PlugMan https://dev.bukkit.org/projects/plugman
      *
+     * First phase of an unload, detaches the plugin from every Bukkit registry. This is the only part that has to run on the main thread,
+     * the returned class loader should be passed to {@link #release(ClassLoader, File)} afterwards, preferably asynchronously.
+     *
      * @param plugin The plugin that needs to be unloaded.
+     * @return The plugin's class loader.
      */
+    @SuppressWarnings("unchecked")
+    public static ClassLoader detach(Plugin plugin) {
+        if (!probed)
+            probe();
 
-    public static void unload(Plugin plugin) {
+        long start = System.nanoTime();
 
         String name = plugin.getName();
 
@@ -43,7 +160,7 @@ public class UtilPlugin {
 
         Map<String, Plugin> names = null;
         Map<String, Command> commands = null;
-        Map<Event, SortedSet<RegisteredListener>> listeners = null;
+        Map<?, SortedSet<RegisteredListener>> listeners = null;
 
         if (pluginManager != null) {
 
@@ -51,30 +168,15 @@ public class UtilPlugin {
 
             try {
 
-                Field pluginsField = Bukkit.getPluginManager().getClass().getDeclaredField("plugins");
-                pluginsField.setAccessible(true);
-                plugins = (List<Plugin>) pluginsField.get(pluginManager);
-
-                Field lookupNamesField = Bukkit.getPluginManager().getClass().getDeclaredField("lookupNames");
-                lookupNamesField.setAccessible(true);
-                names = (Map<String, Plugin>) lookupNamesField.get(pluginManager);
-
-                try {
-                    Field listenersField = Bukkit.getPluginManager().getClass().getDeclaredField("listeners");
-                    listenersField.setAccessible(true);
-                    listeners = (Map<Event, SortedSet<RegisteredListener>>) listenersField.get(pluginManager);
-                } catch (Exception ignored) {
-                }
-
-                Field commandMapField = Bukkit.getPluginManager().getClass().getDeclaredField("commandMap");
-                commandMapField.setAccessible(true);
-                commandMap = (SimpleCommandMap) commandMapField.get(pluginManager);
+                plugins = (List<Plugin>) get(pluginsGetter, pluginManager);
+                names = (Map<String, Plugin>) get(lookupNamesGetter, pluginManager);
+                listeners = (Map<?, SortedSet<RegisteredListener>>) get(listenersGetter, pluginManager);
+                commandMap = (SimpleCommandMap) get(commandMapGetter, pluginManager);
 
-                Field knownCommandsField = SimpleCommandMap.class.getDeclaredField("knownCommands");
-                knownCommandsField.setAccessible(true);
-                commands = (Map<String, Command>) knownCommandsField.get(commandMap);
+                if (commandMap != null)
+                    commands = (Map<String, Command>) get(knownCommandsGetter, commandMap);
 
-            } catch (NoSuchFieldException | IllegalAccessException ex) {
+            } catch (RuntimeException ex) {
                 AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while clearing plugin fields.");
             }
 
@@ -89,56 +191,104 @@ public class UtilPlugin {
         if (names != null)
             names.remove(name);
 
+        //Only servers predating HandlerList keep a listeners map, newer ones already dropped the plugin's listeners in disablePlugin.
         if (listeners != null) {
             for (SortedSet<RegisteredListener> set : listeners.values()) {
                 set.removeIf(value -> value.getPlugin() == plugin);
             }
         }
 
-        if (commandMap != null) {
-            for (Iterator<Map.Entry<String, Command>> it = commands.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry<String, Command> entry = it.next();
-                if (entry.getValue() instanceof PluginCommand) {
-                    PluginCommand c = (PluginCommand) entry.getValue();
-                    if (c.getPlugin() == plugin) {
-                        c.unregister(commandMap);
-                        it.remove();
-                    }
-                }
-            }
-        }
+        int removedCommands = 0;
 
-        // Attempt to close the classloader to unlock any handles on the plugin's jar file.
-        ClassLoader cl = plugin.getClass().getClassLoader();
+        if (commandMap != null && commands != null)
+            removedCommands = removeCommands(commandMap, commands, plugin);
 
-        if (cl instanceof URLClassLoader) {
+        ClassLoader cl = plugin.getClass().getClassLoader();
 
+        if (cl.getClass() == pluginClassLoaderClass) {
             try {
 
-                Field pluginField = cl.getClass().getDeclaredField("plugin");
-                pluginField.setAccessible(true);
-                pluginField.set(cl, null);
-
-                Field pluginInitField = cl.getClass().getDeclaredField("pluginInit");
-                pluginInitField.setAccessible(true);
-                pluginInitField.set(cl, null);
+                set(pluginSetter, cl, null);
+                set(pluginInitSetter, cl, null);
 
-            } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException ex) {
+            } catch (RuntimeException ex) {
                 AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while clearing plugin & plugininit fields.");
             }
+        }
 
-            try {
+        if (AutoUpdaterAPI.getInstance().isDebug())
+            AutoUpdaterAPI.getInstance().getLogger().info("Detached " + plugin.getName() + " in " + String.format("%.2f", (System.nanoTime() - start) / 1000000D) + "ms, removed " + removedCommands + " command entries.");
+
+        return cl;
+    }
+
+    /**
+     * Removes every command owned by the plugin from the known commands of the map.
+     * Every entry is checked, Bukkit keeps no record of the commands a plugin registered itself at runtime so looking up the commands from its description misses those.
+     * UtilPluginTest measures both, on 20,000 entries the full pass takes around half a millisecond against a tenth of that for the lookup, once per unload.
+     *
+     * @return The number of entries removed.
+     */
+    static int removeCommands(CommandMap commandMap, Map<String, Command> commands, Plugin plugin) {
+        Set<Command> owned = new HashSet<>();
+        int removed = 0;
+
+        for (Iterator<Command> it = commands.values().iterator(); it.hasNext(); ) {
+            Command command = it.next();
+
+            if (command instanceof PluginCommand && ((PluginCommand) command).getPlugin() == plugin) {
+                it.remove();
+                owned.add(command);
+                removed++;
+            }
+        }
 
-                ((URLClassLoader) cl).close();
+        for (Command command : owned)
+            command.unregister(commandMap);
+
+        return removed;
+    }
+
+    /**
+     * Second phase of an unload, closes the class loader returned by {@link #detach(Plugin)} and deletes the old jar.
+     * Both touch the jar on disk, so this doesn't need to (and shouldn't) run on the main thread.
+     *
+     * @param loader The class loader of the detached plugin.
+     * @param jar The old jar to delete, null to leave it in place.
+     * @return False if the jar could not be deleted because it's still held open, it is left in place then.
+     */
+    public static boolean release(ClassLoader loader, File jar) {
+        // Attempt to close the classloader to unlock any handles on the plugin's jar file.
+        if (loader instanceof URLClassLoader) {
+            try {
+                ((URLClassLoader) loader).close();
             } catch (IOException ex) {
                 AutoUpdaterAPI.getInstance().printError(ex, "Error occurred while closing URLClassLoader.");
             }
-
         }
 
         // Will not work on processes started with the -XX:+DisableExplicitGC flag, but lets try it anyway.
         // This tries to get around the issue where Windows refuses to unlock jar files that were previously loaded into the JVM.
         System.gc();
 
+        return jar == null || !jar.exists() || jar.delete();
+    }
+
+    /**
+     * Runs {@link #release(ClassLoader, File)} off the main thread and reports a jar that stayed locked, which is then deleted when the server stops.
+     *
+     * @param loader The class loader of the detached plugin.
+     * @param jar The old jar to delete, null to leave it in place. Never the jar the new version was installed to.
+     */
+    public static void releaseAsync(ClassLoader loader, File jar) {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                if (!release(loader, jar)) {
+                    jar.deleteOnExit();
+                    AutoUpdaterAPI.getInstance().printPluginError("Error occurred while unloading a plugin.", "Could not delete old plugin jar " + jar.getName() + ", it is still in use and will be deleted on shutdown.");
+                }
+            }
+        }.runTaskAsynchronously(AutoUpdaterAPI.getInstance());
     }
 }
@@ -0,0 +1,211 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the download engine against a local HTTP server that serves ranges the way a CDN would, and can be told to misbehave.
+ */
+public class DownloadEngineTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = new byte[1024 * 1024 + 123];
+
+    private HttpServer server;
+    private String url;
+
+    //What the stand-in server does.
+    private volatile String headEtag = "\"v1\"";
+    private volatile String currentEtag = "\"v1\"";
+    private volatile boolean acceptRanges = true;
+    private volatile boolean shortRanges;
+
+    private final AtomicInteger partialResponses = new AtomicInteger();
+    private final AtomicInteger fullResponses = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/file.jar", this::handle);
+        server.start();
+
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file.jar";
+
+        DownloadEngine.setSegmented(true);
+        DownloadEngine.setMaxSegments(4);
+        DownloadEngine.setMinSegmentSize(64 * 1024);
+        Preflight.setReserveBytes(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        DownloadEngine.setSegmented(false);
+    }
+
+    @Test
+    public void downloadsInSegments() throws IOException {
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(folder.newFile("segmented.jar"), url);
+
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+
+        assertEquals(4, progress.getSegments());
+        assertEquals(4, partialResponses.get());
+        assertEquals(0, fullResponses.get());
+        assertDownloaded(partial);
+    }
+
+    @Test
+    public void fallsBackWhenServerHasNoRanges() throws IOException {
+        acceptRanges = false;
+
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(folder.newFile("single.jar"), url);
+
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+
+        assertEquals(1, progress.getSegments());
+        assertEquals(0, partialResponses.get());
+        assertDownloaded(partial);
+    }
+
+    @Test
+    public void fallsBackWhenIfRangeDoesNotMatch() throws IOException {
+        //The file changed between the probe and the range requests, so the server answers every range with the full file.
+        headEtag = "\"v0\"";
+
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(folder.newFile("changed.jar"), url);
+
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+
+        assertEquals(0, partialResponses.get());
+        assertEquals(data.length, progress.getDownloaded());
+        assertDownloaded(partial);
+    }
+
+    @Test
+    public void fallsBackWhenSegmentEndsEarly() throws IOException {
+        shortRanges = true;
+
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(folder.newFile("short.jar"), url);
+
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+
+        assertTrue(fullResponses.get() > 0);
+        assertEquals(data.length, progress.getDownloaded());
+        assertDownloaded(partial);
+    }
+
+    @Test
+    public void resumesFromPartFile() throws IOException {
+        DownloadEngine.setSegmented(false);
+
+        File target = folder.newFile("resumed.jar");
+        PartialDownload interrupted = new PartialDownload(target, url);
+        interrupted.begin(data.length, currentEtag, null);
+        //Only what was written is on disk, as after a hard kill.
+        try (FileChannel out = interrupted.open(0)) {
+            out.write(ByteBuffer.wrap(data, 0, 5000));
+        }
+
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(target, url);
+
+        assertEquals(5000, partial.getResumeOffset());
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+
+        assertEquals(1, partialResponses.get());
+        assertDownloaded(partial);
+    }
+
+    @Test
+    public void restartsSegmentedPartFile() throws IOException {
+        //A segmented download killed half way leaves a full length part file with holes in it.
+        File target = folder.newFile("killed.jar");
+        PartialDownload killed = new PartialDownload(target, url);
+        killed.begin(data.length, currentEtag, null, true);
+        Preflight.extend(killed.getPartFile(), data.length);
+
+        DownloadProgress progress = new DownloadProgress();
+        PartialDownload partial = new PartialDownload(target, url);
+
+        assertEquals(0, partial.getResumeOffset());
+        assertEquals(data.length, DownloadEngine.download(partial, progress));
+        assertDownloaded(partial);
+    }
+
+    private void assertDownloaded(PartialDownload partial) throws IOException {
+        assertArrayEquals(data, Files.readAllBytes(partial.getTarget().toPath()));
+        assertEquals(UtilHash.toHex(UtilHash.sha256().digest(data)), partial.getSha256());
+        assertTrue(!partial.getPartFile().exists());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (acceptRanges)
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("ETag", headEtag);
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("ETag", currentEtag);
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+        if (range == null || !acceptRanges || (ifRange != null && !ifRange.equals(currentEtag))) {
+            fullResponses.incrementAndGet();
+            send(exchange, 200, 0, data.length);
+            return;
+        }
+
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int start = Integer.parseInt(bounds[0]);
+        int end = bounds.length > 1 ? Integer.parseInt(bounds[1]) : data.length - 1;
+
+        partialResponses.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+
+        //A range that ends early, the length matches what is sent so the client sees a clean but short body.
+        send(exchange, 206, start, shortRanges ? (end - start + 1) / 2 : end - start + 1);
+    }
+
+    private void send(HttpExchange exchange, int status, int start, int length) throws IOException {
+        exchange.sendResponseHeaders(status, length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data, start, length);
+        }
+    }
+}
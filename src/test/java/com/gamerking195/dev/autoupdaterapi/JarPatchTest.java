@@ -0,0 +1,178 @@
+package com.gamerking195.dev.autoupdaterapi;
+
+import com.gamerking195.dev.autoupdaterapi.util.UtilHash;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Builds two versions of a jar, patches one into the other and checks broken patches are rejected without touching the target.
+ */
+public class JarPatchTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesPatch() throws IOException {
+        File from = jar("from.jar", entries("1.0", "old"));
+        File to = jar("to.jar", entries("1.1", "new"));
+        File target = new File(folder.getRoot(), "target.jar");
+
+        String sha256 = JarPatch.apply(from, new ByteArrayInputStream(patch(from, to)), target);
+
+        assertEquals(UtilHash.sha256(target), sha256);
+        assertEquals(digest(to), digest(target));
+
+        try (ZipFile zip = new ZipFile(target)) {
+            assertNull(zip.getEntry("removed/Old.class"));
+            assertArrayEquals(bytes("name: Test\nversion: 1.1\nmain: test.Main\n"), read(zip, "plugin.yml"));
+        }
+    }
+
+    @Test
+    public void rejectsPatchForAnotherJar() throws IOException {
+        File from = jar("from.jar", entries("1.0", "old"));
+        File to = jar("to.jar", entries("1.1", "new"));
+        File other = jar("other.jar", entries("0.9", "older"));
+        File target = new File(folder.getRoot(), "target.jar");
+
+        assertRejected(other, patch(from, to), target);
+    }
+
+    @Test
+    public void rejectsTamperedPatch() throws IOException {
+        File from = jar("from.jar", entries("1.0", "old"));
+        File to = jar("to.jar", entries("1.1", "new"));
+        File target = new File(folder.getRoot(), "target.jar");
+
+        //Same structure, but a changed entry doesn't hold what the manifest promises.
+        ByteArrayOutputStream tampered = new ByteArrayOutputStream();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(patch(from, to)));
+             ZipOutputStream out = new ZipOutputStream(tampered)) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                byte[] data = readFully(in);
+
+                if (entry.getName().equals("entries/plugin.yml"))
+                    data = bytes("name: Test\nversion: 6.6\nmain: test.Main\n");
+
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+
+        assertRejected(from, tampered.toByteArray(), target);
+    }
+
+    @Test
+    public void rejectsTruncatedPatch() throws IOException {
+        File from = jar("from.jar", entries("1.0", "old"));
+        File to = jar("to.jar", entries("1.1", "new"));
+        File target = new File(folder.getRoot(), "target.jar");
+
+        byte[] patch = patch(from, to);
+
+        assertRejected(from, Arrays.copyOf(patch, patch.length / 2), target);
+        assertRejected(from, bytes("<html>Not Found</html>"), target);
+    }
+
+    /**
+     * A rejected patch must throw and leave nothing behind, which is what lets the updater fall back to a full download.
+     */
+    private void assertRejected(File from, byte[] patch, File target) throws IOException {
+        byte[] existing = bytes("existing");
+        Files.write(target.toPath(), existing);
+
+        try {
+            JarPatch.apply(from, new ByteArrayInputStream(patch), target);
+            fail("Patch should have been rejected.");
+        } catch (IOException expected) {
+        }
+
+        assertArrayEquals(existing, Files.readAllBytes(target.toPath()));
+
+        String[] leftovers = folder.getRoot().list((dir, name) -> name.endsWith(".patching"));
+        assertFalse(leftovers != null && leftovers.length > 0);
+    }
+
+    private static Map<String, byte[]> entries(String version, String extra) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("plugin.yml", bytes("name: Test\nversion: " + version + "\nmain: test.Main\n"));
+        entries.put("test/Main.class", bytes("main class"));
+        entries.put(extra.equals("old") ? "removed/Old.class" : "added/" + extra + ".class", bytes(extra));
+
+        byte[] large = new byte[64 * 1024];
+        Arrays.fill(large, (byte) 7);
+        entries.put("assets/large.bin", large);
+
+        return entries;
+    }
+
+    private File jar(String name, Map<String, byte[]> entries) throws IOException {
+        File jar = new File(folder.getRoot(), name);
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+
+    private static byte[] patch(File from, File to) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        JarPatch.create(from, to, patch);
+        return patch.toByteArray();
+    }
+
+    private static String digest(File jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            return JarPatch.contentDigest(zip);
+        }
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return readFully(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+            out.write(buffer, 0, read);
+
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,173 @@
+package com.gamerking195.dev.autoupdaterapi.util;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.Plugin;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fills a command map the way SimpleCommandMap does for a large server and checks what unloading one plugin leaves behind.
+ * The benchmark compares the full pass UtilPlugin does against looking up the commands from the plugin's description.
+ */
+public class UtilPluginTest {
+    private static final int PLUGINS = 200;
+    private static final int COMMANDS_PER_PLUGIN = 25;
+    private static final int RUNS = 200;
+
+    private final List<Plugin> plugins = new ArrayList<>();
+    private final Plugin target;
+
+    public UtilPluginTest() {
+        for (int i = 0; i < PLUGINS; i++)
+            plugins.add(plugin("Plugin" + i));
+
+        target = plugins.get(PLUGINS / 2);
+    }
+
+    @Test
+    public void removesRuntimeRegisteredCommands() throws Exception {
+        Map<String, Command> commands = knownCommands();
+        int before = commands.size();
+
+        int removed = UtilPlugin.removeCommands(null, commands, target);
+
+        //Every described command and its alias under the plain and prefixed label, plus the two registered at runtime.
+        assertEquals(COMMANDS_PER_PLUGIN * 4 + 4, removed);
+        assertEquals(before - removed, commands.size());
+
+        for (Command command : commands.values())
+            assertTrue(((PluginCommand) command).getPlugin() != target);
+    }
+
+    @Test
+    public void benchmarkCommandRemoval() throws Exception {
+        long[] fullPass = new long[RUNS];
+        long[] lookup = new long[RUNS];
+        boolean lookupMissedCommands = false;
+
+        for (int run = 0; run < RUNS; run++) {
+            Map<String, Command> commands = knownCommands();
+            long start = System.nanoTime();
+            UtilPlugin.removeCommands(null, commands, target);
+            fullPass[run] = System.nanoTime() - start;
+
+            commands = knownCommands();
+            start = System.nanoTime();
+            lookupDescribed(commands, target);
+            lookup[run] = System.nanoTime() - start;
+
+            for (Command command : commands.values())
+                lookupMissedCommands |= ((PluginCommand) command).getPlugin() == target;
+        }
+
+        System.out.println(String.format("Removing one plugin's commands from %d entries, median of %d runs: full pass %.1fus, description lookup %.1fus.",
+                knownCommands().size(), RUNS, median(fullPass) / 1000D, median(lookup) / 1000D));
+
+        //The reason for the full pass, the lookup leaves the runtime commands registered against an unloaded plugin.
+        assertTrue(lookupMissedCommands);
+    }
+
+    /**
+     * The per plugin lookup, every described command and alias under its plain and prefixed label.
+     */
+    private static void lookupDescribed(Map<String, Command> commands, Plugin plugin) {
+        String prefix = plugin.getName().toLowerCase(Locale.ENGLISH);
+
+        for (int i = 0; i < COMMANDS_PER_PLUGIN; i++) {
+            String name = prefix + "cmd" + i;
+            Command command = commands.get(prefix + ":" + name);
+
+            if (command == null)
+                continue;
+
+            List<String> labels = new ArrayList<>(command.getAliases());
+            labels.add(name);
+
+            for (String label : labels) {
+                remove(commands, label, plugin);
+                remove(commands, prefix + ":" + label, plugin);
+            }
+        }
+    }
+
+    private static void remove(Map<String, Command> commands, String label, Plugin plugin) {
+        Command command = commands.get(label);
+
+        if (command instanceof PluginCommand && ((PluginCommand) command).getPlugin() == plugin)
+            commands.remove(label);
+    }
+
+    private Map<String, Command> knownCommands() throws Exception {
+        Map<String, Command> commands = new HashMap<>();
+
+        for (Plugin plugin : plugins) {
+            String prefix = plugin.getName().toLowerCase(Locale.ENGLISH);
+
+            for (int i = 0; i < COMMANDS_PER_PLUGIN; i++) {
+                String name = prefix + "cmd" + i;
+                register(commands, prefix, command(name, plugin, name + "alias"));
+            }
+        }
+
+        //Registered by the plugin itself after it enabled, nothing in its description mentions these.
+        String prefix = target.getName().toLowerCase(Locale.ENGLISH);
+        register(commands, prefix, command("runtime", target));
+        register(commands, prefix, command("dynamic", target));
+
+        return commands;
+    }
+
+    private static void register(Map<String, Command> commands, String prefix, Command command) {
+        List<String> labels = new ArrayList<>(command.getAliases());
+        labels.add(command.getName());
+
+        for (String label : labels) {
+            commands.putIfAbsent(label, command);
+            commands.put(prefix + ":" + label, command);
+        }
+    }
+
+    private static PluginCommand command(String name, Plugin plugin, String... aliases) throws Exception {
+        Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+        constructor.setAccessible(true);
+
+        PluginCommand command = constructor.newInstance(name, plugin);
+        command.setAliases(aliases.length == 0 ? Collections.emptyList() : new ArrayList<>(Arrays.asList(aliases)));
+        return command;
+    }
+
+    private static Plugin plugin(String name) {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return name;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}